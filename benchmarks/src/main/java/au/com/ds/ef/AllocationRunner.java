@@ -0,0 +1,30 @@
+package au.com.ds.ef;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link TriggerBenchmark} with the GC profiler, {@code gc.alloc.rate.norm} is the number of bytes
+ * allocated per transition.
+ * <pre>
+ * java -cp target/benchmarks.jar au.com.ds.ef.AllocationRunner [benchmark regexp]
+ * </pre>
+ */
+public class AllocationRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : TriggerBenchmark.class.getSimpleName();
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .mode(Mode.AverageTime)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
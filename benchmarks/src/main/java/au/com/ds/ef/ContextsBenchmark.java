@@ -0,0 +1,108 @@
+package au.com.ds.ef;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static au.com.ds.ef.RingFlows.Events.next;
+
+/**
+ * Many contexts of one flow triggered from several threads, one operation is a batch of transitions,
+ * one per context of the benchmark thread.
+ * {@code pooled} runs them on a fixed thread pool with a shared blocking queue,
+ * {@code mailbox} adds per-context mailboxes on top of it and {@code sharded} uses a {@link ShardedExecutor}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ContextsBenchmark {
+    private static final int CONTEXTS = 64;
+
+    @State(Scope.Benchmark)
+    public static class Runtime {
+        @Param({"pooled", "mailbox", "sharded"})
+        public String executor;
+
+        @Param({"easy", "enter"})
+        public String flow;
+
+        @Param({"4"})
+        public int loops;
+
+        private ExecutorService pool;
+        private ShardedExecutor sharded;
+        Flow<RingFlows.RingContext> ring;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Executor e;
+            if ("sharded".equals(executor)) {
+                sharded = new ShardedExecutor(loops);
+                e = sharded;
+            } else {
+                pool = Executors.newFixedThreadPool(loops);
+                e = "mailbox".equals(executor) ? new MailboxExecutor(pool) : pool;
+            }
+            ring = RingFlows.create(flow, 50, e);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            if (pool != null) {
+                pool.shutdown();
+                pool.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            if (sharded != null) {
+                sharded.shutdown();
+                sharded.awaitTermination(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Contexts {
+        RingFlows.RingContext[] contexts = new RingFlows.RingContext[CONTEXTS];
+        long[] entered = new long[CONTEXTS];
+
+        @Setup(Level.Trial)
+        public void setUp(Runtime runtime) {
+            for (int i = 0; i < CONTEXTS; i++) {
+                contexts[i] = new RingFlows.RingContext();
+                runtime.ring.start(contexts[i]);
+                contexts[i].await(1);
+                entered[i] = contexts[i].getEntered();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONTEXTS)
+    public void trigger(Runtime runtime, Contexts state) {
+        for (int i = 0; i < CONTEXTS; i++) {
+            runtime.ring.trigger(next, state.contexts[i]);
+        }
+        for (int i = 0; i < CONTEXTS; i++) {
+            state.contexts[i].await(++state.entered[i]);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package au.com.ds.ef;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static au.com.ds.ef.RingFlows.Events.next;
+
+/**
+ * Transitions of a ring flow with a {@link TransitionJournal}, triggered inline from several threads,
+ * each with its own context. {@code none} runs without a journal, with {@code SYNC} each transition
+ * waits for its record to be forced, shared with transitions of the other threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class JournalBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Runtime {
+        @Param({"none", "ASYNC", "PERIODIC", "SYNC"})
+        public String durability;
+
+        @Param({"easy", "enter"})
+        public String flow;
+
+        private File directory;
+        private TransitionJournal journal;
+        Flow<RingFlows.RingContext> ring;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            ring = RingFlows.create(flow, 50, new InlineExecutor());
+            if (!"none".equals(durability)) {
+                directory = File.createTempFile("journal", "");
+                directory.delete();
+                journal = new TransitionJournal(directory, TransitionJournal.Durability.valueOf(durability));
+                if (ring instanceof EasyFlow) {
+                    ((EasyFlow<RingFlows.RingContext>) ring).journal(journal);
+                } else {
+                    ((EnterFlow<RingFlows.RingContext>) ring).journal(journal);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            if (journal != null) {
+                journal.close();
+                for (File file : directory.listFiles()) {
+                    file.delete();
+                }
+                directory.delete();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Context {
+        RingFlows.RingContext context;
+
+        @Setup(Level.Trial)
+        public void setUp(Runtime runtime) {
+            context = new RingFlows.RingContext();
+            runtime.ring.start(context);
+        }
+    }
+
+    @Benchmark
+    public boolean trigger(Runtime runtime, Context context) {
+        return runtime.ring.trigger(next, context.context);
+    }
+}
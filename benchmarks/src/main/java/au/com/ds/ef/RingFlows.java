@@ -0,0 +1,93 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.StateHandler;
+
+import java.util.concurrent.Executor;
+
+import static au.com.ds.ef.ToHolder.on;
+
+/**
+ * Flows of generated states connected in a ring: every state moves to the next one on {@link Events#next},
+ * the last one goes back to the first, so a context can be triggered forever.
+ */
+final class RingFlows {
+    public enum Events implements EventEnum {
+        next
+    }
+
+    static final class RingState implements StateEnum {
+        private final String name;
+
+        RingState(int index) {
+            this.name = "S" + index;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Counts entered states, so callers can wait until transitions executed on a pool are done.
+     */
+    static class RingContext extends StatefulContext {
+        private static final long serialVersionUID = -2514691461695497670L;
+
+        private volatile long entered;
+
+        void await(long count) {
+            while (entered < count) {
+                Thread.yield();
+            }
+        }
+
+        long getEntered() {
+            return entered;
+        }
+    }
+
+    private RingFlows() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static Flow<RingContext> create(String type, int size, Executor executor) {
+        RingState[] states = new RingState[size];
+        for (int i = 0; i < size; i++) {
+            states[i] = new RingState(i);
+        }
+
+        Flow<RingContext> flow;
+        if ("easy".equals(type)) {
+            EasyFlow<RingContext> easyFlow = FlowBuilder.EasyFlowBuilder.from(states[0]).transit(ring(states));
+            flow = easyFlow.executor(executor);
+        } else if ("enter".equals(type)) {
+            EnterFlow<RingContext> enterFlow = FlowBuilder.EnterFlowBuilder.from(states[0]).transit(ring(states));
+            flow = enterFlow.executor(executor);
+        } else {
+            throw new IllegalArgumentException("Unknown flow type: " + type);
+        }
+        Transition.Repository.consume();
+
+        return flow.whenEnter(new StateHandler<RingContext>() {
+            @Override
+            public void call(StateEnum state, RingContext context) throws Exception {
+                // single writer, transitions of a context never run concurrently
+                context.entered++;
+            }
+        });
+    }
+
+    private static Transition ring(RingState[] states) {
+        Transition transition = on(Events.next).backTo(states[0]);
+        for (int i = states.length - 1; i > 0; i--) {
+            transition = on(Events.next).to(states[i]).transit(transition);
+        }
+        return transition;
+    }
+}
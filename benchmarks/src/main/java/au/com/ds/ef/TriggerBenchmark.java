@@ -0,0 +1,105 @@
+package au.com.ds.ef;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static au.com.ds.ef.RingFlows.Events.next;
+
+/**
+ * One operation is one complete transition of a ring flow: trigger and wait until the next state is entered.
+ * With {@code inline} executor handlers run on the benchmark thread, with {@code pooled} they run on
+ * a {@link MailboxExecutor} and with {@code sharded} on a {@link ShardedExecutor}, while the benchmark thread
+ * spins until the transition is done.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TriggerBenchmark {
+
+    @Param({"easy", "enter"})
+    public String flow;
+
+    @Param({"inline", "pooled", "sharded"})
+    public String executor;
+
+    @Param({"5", "50", "500", "5000"})
+    public int states;
+
+    private ExecutorService pool;
+    private ShardedExecutor sharded;
+    private Flow<RingFlows.RingContext> ring;
+    private RingFlows.RingContext context;
+    private long entered;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Executor e;
+        if ("pooled".equals(executor)) {
+            pool = Executors.newFixedThreadPool(2);
+            e = new MailboxExecutor(pool);
+        } else if ("sharded".equals(executor)) {
+            sharded = new ShardedExecutor(2);
+            e = sharded;
+        } else {
+            e = new InlineExecutor();
+        }
+
+        ring = RingFlows.create(flow, states, e);
+        context = new RingFlows.RingContext();
+        ring.start(context);
+        context.await(1);
+        entered = context.getEntered();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        if (pool != null) {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        if (sharded != null) {
+            sharded.shutdown();
+            sharded.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Benchmark
+    public boolean trigger() {
+        boolean accepted = ring.trigger(next, context);
+        context.await(++entered);
+        return accepted;
+    }
+
+    @Benchmark
+    public boolean safeTrigger() {
+        boolean accepted = ring.safeTrigger(next, context);
+        context.await(++entered);
+        return accepted;
+    }
+
+    @Benchmark
+    public boolean conditionTrigger() {
+        boolean accepted = ring.conditionTrigger(next, context, context.getStateValue());
+        context.await(++entered);
+        return accepted;
+    }
+}
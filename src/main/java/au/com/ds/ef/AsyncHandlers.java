@@ -0,0 +1,102 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.AsyncContextHandler;
+import au.com.ds.ef.call.BatchHandler;
+import au.com.ds.ef.call.ContextHandler;
+import au.com.ds.ef.err.ExecutionError;
+import au.com.ds.ef.err.LogicViolationError;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Async and batched state handlers of a flow: once the handler future completes the context continues
+ * with the success event, failures are reported on the executor of the state.
+ */
+abstract class AsyncHandlers<C extends StatefulContext> {
+    private final Flow<C> flow;
+
+    AsyncHandlers(Flow<C> flow) {
+        this.flow = flow;
+    }
+
+    /**
+     * @return executor running tasks of the state, its stage executor or the flow executor
+     */
+    abstract Executor executor(StateEnum state);
+
+    /**
+     * Runs the task of the context in the state, ordered with other tasks of the context.
+     */
+    abstract void execute(C context, StateEnum state, Runnable task);
+
+    abstract void onError(ExecutionError error);
+
+    ContextHandler<C> enter(final StateEnum state, final AsyncContextHandler<C> handler, final EventEnum successEvent) {
+        return new ContextHandler<C>() {
+            @Override
+            public void call(final C context) throws Exception {
+                ListenableFuture<?> pending = handler.call(context);
+                if (pending == null) {
+                    pending = Futures.immediateFuture(null);
+                }
+
+                Futures.addCallback(pending, new FutureCallback<Object>() {
+                    @Override
+                    public void onSuccess(Object result) {
+                        if (successEvent != null && flow.tryConditionTrigger(successEvent, context, state)
+                                == TriggerResult.REJECTED_NO_TRANSITION) {
+                            failed(new ExecutionError(state, successEvent, new LogicViolationError(String.format(
+                                    "Invalid Event: %s triggered while in State: %s for %s", successEvent, state, context)),
+                                    "Execution Error in [whenEnter] async handler", context));
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        failed(new ExecutionError(state, null, exception(t),
+                                "Execution Error in [whenEnter] async handler", context));
+                    }
+                }, MoreExecutors.directExecutor());
+            }
+        };
+    }
+
+    /**
+     * Batches of contexts entering the state are handed to the handler on the executor of the state.
+     */
+    AsyncContextHandler<C> batch(final StateEnum state, int maxSize, long maxDelay, TimeUnit unit,
+                                 BatchHandler<C> handler, FlowTimeouts timeouts) {
+        Executor batchExecutor = new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                executor(state).execute(task);
+            }
+        };
+        return new EnterBatch<C>(handler, maxSize, maxDelay, unit, timeouts, batchExecutor);
+    }
+
+    /**
+     * Reports failure of an async handler on the executor, ordered with other tasks of the context.
+     */
+    void failed(final ExecutionError error) {
+        final C context = error.getContext();
+        if (!context.isTerminated()) {
+            execute(context, error.getState(), new Runnable() {
+                @Override
+                public void run() {
+                    onError(error);
+                }
+            });
+        }
+    }
+
+    static Exception exception(Throwable t) {
+        return t instanceof Exception ? (Exception) t : new ExecutionException(t);
+    }
+}
@@ -0,0 +1,136 @@
+package au.com.ds.ef;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the number of triggers accepted by a flow but not handled yet, in total and per context.
+ * A trigger holds a permit from acceptance until its transition task completes, when no permit is available
+ * the {@link Overflow} policy applies:
+ * <pre>
+ * flow.backpressure(new Backpressure(10000, 16, Backpressure.Overflow.REJECT));
+ * </pre>
+ * Rejected triggers return {@link TriggerResult#REJECTED_BACKPRESSURE}, so callers can slow down their source.
+ * Blocking a thread of the flow's executor can wait for tasks only that thread would run, keep the timeout short
+ * or block only threads outside of the flow.
+ */
+public class Backpressure {
+    public enum Overflow {
+        /**
+         * Trigger is rejected immediately.
+         */
+        REJECT,
+        /**
+         * Caller waits for a permit up to the timeout, then the trigger is rejected.
+         */
+        BLOCK,
+        /**
+         * Transition runs on the calling thread. With {@link MailboxExecutor} or {@link InlineExecutor} it goes
+         * through the mailbox of the context, so it's queued behind tasks of the context still running.
+         * Other {@link ContextExecutor}s can't keep it serial with tasks of the context, the trigger is rejected.
+         */
+        CALLER_RUNS
+    }
+
+    private final Semaphore permits;
+    private final int capacity;
+    private final int perContextCapacity;
+    private final Overflow overflow;
+    private final long timeoutNanos;
+
+    /**
+     * @param capacity - max pending triggers of the flow, 0 for unbounded
+     * @param perContextCapacity - max pending triggers of each context, 0 for unbounded
+     */
+    public Backpressure(int capacity, int perContextCapacity, Overflow overflow) {
+        this(capacity, perContextCapacity, overflow, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param timeout - max wait for a permit with {@link Overflow#BLOCK}
+     */
+    public Backpressure(int capacity, int perContextCapacity, Overflow overflow, long timeout, TimeUnit unit) {
+        if (capacity < 0 || perContextCapacity < 0 || capacity == 0 && perContextCapacity == 0) {
+            throw new IllegalArgumentException("Capacity has to be positive.");
+        }
+        if (overflow == null) {
+            throw new IllegalArgumentException("Overflow policy is required.");
+        }
+        this.permits = capacity > 0 ? new Semaphore(capacity) : null;
+        this.capacity = capacity;
+        this.perContextCapacity = perContextCapacity;
+        this.overflow = overflow;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @return number of triggers of all contexts holding a permit, 0 if the flow is not bounded
+     */
+    public int getPending() {
+        return permits != null ? capacity - permits.availablePermits() : 0;
+    }
+
+    /**
+     * @return true if the trigger holds a permit and has to {@link #release} it
+     */
+    boolean acquire(StatefulContext context) {
+        long deadline = overflow == Overflow.BLOCK ? System.nanoTime() + timeoutNanos : 0;
+        Semaphore contextPermits = perContextCapacity > 0 ? context.getPermits(perContextCapacity) : null;
+
+        if (!acquire(contextPermits, deadline)) {
+            return false;
+        }
+        if (!acquire(permits, deadline)) {
+            if (contextPermits != null) {
+                contextPermits.release();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private boolean acquire(Semaphore semaphore, long deadline) {
+        if (semaphore == null || semaphore.tryAcquire()) {
+            return true;
+        }
+        if (overflow != Overflow.BLOCK) {
+            return false;
+        }
+
+        try {
+            return semaphore.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    void release(StatefulContext context) {
+        if (permits != null) {
+            permits.release();
+        }
+        if (perContextCapacity > 0) {
+            context.getPermits(perContextCapacity).release();
+        }
+    }
+
+    boolean isCallerRuns() {
+        return overflow == Overflow.CALLER_RUNS;
+    }
+
+    /**
+     * @return task releasing the permit of the context once completed
+     */
+    Runnable releasing(final StatefulContext context, final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    release(context);
+                }
+            }
+        };
+    }
+}
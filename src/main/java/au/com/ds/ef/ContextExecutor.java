@@ -0,0 +1,12 @@
+package au.com.ds.ef;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor aware of the context a task belongs to.
+ * When passed to {@link EasyFlow#executor(Executor)} or {@link EnterFlow#executor(Executor)}
+ * flows submit their tasks through {@link #execute(StatefulContext, Runnable)}.
+ */
+public interface ContextExecutor extends Executor {
+    void execute(StatefulContext context, Runnable task);
+}
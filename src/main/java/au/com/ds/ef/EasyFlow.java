@@ -1,5 +1,7 @@
 package au.com.ds.ef;
 
+import au.com.ds.ef.call.AsyncContextHandler;
+import au.com.ds.ef.call.BatchHandler;
 import au.com.ds.ef.call.ContextHandler;
 import au.com.ds.ef.call.EventHandler;
 import au.com.ds.ef.call.ExecutionErrorHandler;
@@ -7,14 +9,18 @@ import au.com.ds.ef.call.StateHandler;
 import au.com.ds.ef.err.ExecutionError;
 import au.com.ds.ef.err.LogicViolationError;
 import au.com.ds.ef.log.FlowLogger;
-import au.com.ds.ef.log.FlowLoggerImpl;
-import com.google.common.base.Predicate;
-import com.google.common.collect.FluentIterable;
+import au.com.ds.ef.log.FlowLoggers;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import static au.com.ds.ef.HandlerCollection.EventType;
 
@@ -34,35 +40,78 @@ public class EasyFlow<C extends StatefulContext> extends Flow<C> {
     }
 
     private StateEnum startState;
+    private FlowDefinition definition;
     private TransitionCollection transitions;
 
     private Executor executor;
+    private ContextExecutor contextExecutor;
 
     private HandlerCollection handlers = new HandlerCollection();
+    private final AsyncHandlers<C> async = new AsyncHandlers<C>(this) {
+        @Override
+        Executor executor(StateEnum state) {
+            return executorOf(state);
+        }
+
+        @Override
+        void execute(C context, StateEnum state, Runnable task) {
+            EasyFlow.this.execute(context, state, task);
+        }
+
+        @Override
+        void onError(ExecutionError error) {
+            doOnError(error);
+        }
+    };
+    private FlowTimeouts timeouts = new FlowTimeouts();
+    private FlowStages stages = new FlowStages();
+    private FlowMetrics metrics;
+    private FlightRecorder recorder;
+    private TransitionJournal journal;
+    private Backpressure backpressure;
     private boolean trace = false;
-    private FlowLogger log = new FlowLoggerImpl();
+    private boolean singleHop = false;
+    private FlowLogger log = FlowLoggers.getDefault();
 
     protected EasyFlow(StateEnum startState) {
         this.startState = startState;
         this.handlers.setHandler(HandlerCollection.EventType.ERROR, null, null, new DefaultErrorHandler());
     }
 
+    protected EasyFlow(FlowDefinition definition) {
+        this(definition.getStartState());
+        define(definition);
+    }
+
     public void processAllTransitions(boolean skipValidation) {
-        List<Transition> cTransitions = Transition.Repository.consume();
-        if (cTransitions != null) {
-            cTransitions = FluentIterable.from(cTransitions)
-                    .filter(new Predicate<Transition>() {
-                        @Override
-                        public boolean apply(Transition t) {
-                            return t.getStateFrom() != null;
-                        }
-                    }).toList();
-        }
-        transitions = new TransitionCollection(cTransitions, !skipValidation);
+        define(FlowDefinition.consume(startState, !skipValidation));
     }
 
     public void setTransitions(Collection<Transition> collection, boolean skipValidation) {
-        transitions = new TransitionCollection(collection, !skipValidation);
+        define(new FlowDefinition(startState, collection, !skipValidation));
+    }
+
+    private void define(FlowDefinition definition) {
+        this.definition = definition;
+        transitions = definition.getTransitions();
+        handlers.bind(transitions.getTable());
+        stages.bind(transitions.getTable());
+        if (metrics != null) {
+            metrics.bind(transitions.getTable());
+        }
+        if (recorder != null) {
+            recorder.bind(transitions.getTable());
+        }
+        if (journal != null) {
+            journal.bind(transitions.getTable());
+        }
+    }
+
+    /**
+     * Transitions of this flow, shareable with other flows.
+     */
+    public FlowDefinition getDefinition() {
+        return definition;
     }
 
     private void prepare() {
@@ -87,35 +136,92 @@ public class EasyFlow<C extends StatefulContext> extends Flow<C> {
     }
 
     protected void transit(final StateEnum condition, final StateEnum targetState, final boolean enterInitialState, final C context) {
+        transit(condition, targetState, enterInitialState, null, context);
+    }
 
-        execute(context, new Runnable() {
+    private void transit(final StateEnum condition, final StateEnum targetState, final boolean enterInitialState,
+                         final EventEnum event, final C context) {
+
+        execute(context, targetState, new Runnable() {
             @Override
             public void run() {
-                if (!enterInitialState) {
-                    StateEnum prevState = context.getStateValue();
-                    if (prevState != null) {
-                        leave(prevState, context);
-                    }
-                }
+                doTransit(condition, targetState, enterInitialState, event, context);
+            }
+        });
+    }
 
-                if (casState(context, condition, targetState)) {
-                    enter(targetState, context);
+    private void doTransit(StateEnum condition, StateEnum targetState, boolean enterInitialState, EventEnum event, C context) {
+        StateEnum prevState = context.getStateValue();
+        if (!enterInitialState && prevState != null) {
+            leave(prevState, context);
+        }
+
+        TransitionJournal j = enterInitialState ? null : journal;
+        long sequence = j != null ? casJournaled(context, condition, targetState)
+                : casState(context, condition, targetState) ? 1 : 0;
+        if (sequence > 0) {
+            if (j != null) {
+                try {
+                    j.append(context, prevState, targetState, event, sequence);
+                } catch (RuntimeException e) {
+                    doOnError(new ExecutionError(targetState, event, e, "Execution Error in [journal]", context));
+                    return;
                 }
             }
-        });
+            enter(targetState, context);
+        }
     }
 
     protected void execute(final C context, Runnable task) {
+        execute(context, context.getStateValue(), task);
+    }
+
+    /**
+     * @param state - state the task runs in, picks the executor of its stage
+     */
+    private void execute(C context, StateEnum state, Runnable task) {
         if (!context.isTerminated()) {
+            dispatch(context, state, task);
+        }
+    }
+
+    private void dispatch(C context, StateEnum state, Runnable task) {
+        Executor stage = stages.get(state);
+        if (stage != null) {
+            FlowStages.execute(stage, context, task);
+        } else if (contextExecutor != null) {
+            contextExecutor.execute(context, task);
+        } else {
             executor.execute(task);
         }
     }
 
+    private void runOnCaller(C context, StateEnum state, Runnable task) {
+        FlowStages.runOnCaller(executorOf(state), context, task);
+    }
+
+    private Executor executorOf(StateEnum state) {
+        Executor stage = stages.get(state);
+        return stage != null ? stage : executor;
+    }
+
+    /**
+     * Numbers the state change for the journal together with the change.
+     *
+     * @return sequence of the change, 0 if the state was not changed
+     */
+    private long casJournaled(C context, StateEnum expectedState, StateEnum targetState) {
+        TransitionJournal.Sequence s = context.getJournalSequence();
+        synchronized (s) {
+            return casState(context, expectedState, targetState) ? s.next() : 0;
+        }
+    }
+
     protected boolean casState(final C context, StateEnum expectedState, StateEnum targetState) {
         if (expectedState != null) {
-            return context.getStateRef().compareAndSet(expectedState, targetState);
+            return context.compareAndSetState(expectedState, targetState);
         } else {
-            context.getStateRef().set(targetState);
+            context.setState(targetState);
             return true;
         }
     }
@@ -125,6 +231,15 @@ public class EasyFlow<C extends StatefulContext> extends Flow<C> {
         return this;
     }
 
+    /**
+     * Leave and enter handlers of the transition run once the future returned by the handler succeeds,
+     * failure is reported to the error handler.
+     */
+    public EasyFlow<C> whenEvent(EventEnum event, AsyncContextHandler<C> onEvent) {
+        handlers.setHandler(EventType.EVENT_TRIGGER, null, event, onEvent);
+        return this;
+    }
+
     public EasyFlow<C> whenEvent(EventHandler<C> onEvent) {
         handlers.setHandler(EventType.ANY_EVENT_TRIGGER, null, null, onEvent);
         return this;
@@ -135,6 +250,25 @@ public class EasyFlow<C extends StatefulContext> extends Flow<C> {
         return this;
     }
 
+    /**
+     * Once the future returned by the handler succeeds, {@code onSuccess} is triggered if the context is still
+     * in the state, failure is reported to the error handler. {@code onSuccess} may be null to only wait for errors.
+     */
+    public EasyFlow<C> whenEnter(StateEnum state, AsyncContextHandler<? extends C> onEnter, EventEnum onSuccess) {
+        handlers.setHandler(EventType.STATE_ENTER, state, null, async.enter(state, (AsyncContextHandler<C>) onEnter, onSuccess));
+        return this;
+    }
+
+    /**
+     * Contexts entering the state are collected and handed to the handler at once, see {@link EnterBatch}.
+     * Each context of the batch continues with {@code onSuccess} once the handler returns,
+     * failure of the handler is reported to the error handler of each context.
+     */
+    public EasyFlow<C> whenEnterBatch(StateEnum state, int maxSize, long maxDelay, TimeUnit unit,
+                                      BatchHandler<C> onEnter, EventEnum onSuccess) {
+        return whenEnter(state, async.batch(state, maxSize, maxDelay, unit, onEnter, timeouts), onSuccess);
+    }
+
     public EasyFlow<C> whenEnter(StateHandler<C> onEnter) {
         handlers.setHandler(EventType.ANY_STATE_ENTER, null, null, onEnter);
         return this;
@@ -150,6 +284,15 @@ public class EasyFlow<C extends StatefulContext> extends Flow<C> {
         return this;
     }
 
+    /**
+     * When the context stays in the state for longer than the delay, the event is triggered.
+     * Timeout is cancelled once the state is left or the context terminates.
+     */
+    public EasyFlow<C> timeout(StateEnum state, long delay, TimeUnit unit, EventEnum event) {
+        timeouts.put(state, delay, unit, event);
+        return this;
+    }
+
     public EasyFlow<C> whenError(ExecutionErrorHandler<C> onError) {
         handlers.setHandler(EventType.ERROR, null, null, onError);
         return this;
@@ -160,8 +303,74 @@ public class EasyFlow<C extends StatefulContext> extends Flow<C> {
         return this;
     }
 
+    /**
+     * Binds the states to a stage with its own executor, so a state calling a slow service can't starve other
+     * states sharing the flow executor. Tasks entering a state run on its stage, event handlers on the stage
+     * of the state the event was triggered in and transitions hop between stages on their own.
+     * A fixed pool per stage limits concurrency of its states, a {@link MailboxExecutor} keeps contexts in order.
+     */
+    public EasyFlow<C> stage(Executor executor, StateEnum... states) {
+        stages.put(executor, states);
+        return this;
+    }
+
     public EasyFlow<C> executor(Executor executor) {
         this.executor = executor;
+        this.contextExecutor = executor instanceof ContextExecutor ? (ContextExecutor) executor : null;
+        return this;
+    }
+
+    /**
+     * Timer for state timeouts and delayed events, {@link FlowTimer#getDefault()} is used if not set.
+     */
+    public EasyFlow<C> timer(FlowTimer timer) {
+        timeouts.setTimer(timer);
+        return this;
+    }
+
+    public FlowTimer.Timeout triggerAfter(EventEnum event, C context, long delay, TimeUnit unit) {
+        return timeouts.triggerAfter(event, context, delay, unit);
+    }
+
+    /**
+     * Records transition counts and handler latencies, see {@link FlowMetrics}.
+     */
+    public EasyFlow<C> metrics(FlowMetrics metrics) {
+        if (transitions != null) {
+            metrics.bind(transitions.getTable());
+        }
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Records recent transitions, see {@link FlightRecorder}.
+     */
+    public EasyFlow<C> recorder(FlightRecorder recorder) {
+        if (transitions != null) {
+            recorder.bind(transitions.getTable());
+        }
+        this.recorder = recorder;
+        return this;
+    }
+
+    /**
+     * Journals every state change, see {@link TransitionJournal}.
+     */
+    public EasyFlow<C> journal(TransitionJournal journal) {
+        if (transitions != null) {
+            journal.bind(transitions.getTable());
+        }
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * Bounds triggers accepted but not handled yet, see {@link Backpressure}.
+     * Triggers rejected by the executor are reported as {@link TriggerResult#REJECTED_BACKPRESSURE} as well.
+     */
+    public EasyFlow<C> backpressure(Backpressure backpressure) {
+        this.backpressure = backpressure;
         return this;
     }
 
@@ -170,6 +379,16 @@ public class EasyFlow<C extends StatefulContext> extends Flow<C> {
         return this;
     }
 
+    /**
+     * Runs event, leave and enter handlers of a transition as one task submitted to the executor,
+     * instead of scheduling leave and enter handlers separately once event handlers complete.
+     * Handlers are still invoked in the same order. Transitions into a state of another stage still hop to it.
+     */
+    public EasyFlow<C> singleHop() {
+        singleHop = true;
+        return this;
+    }
+
     public EasyFlow<C> logger(FlowLogger log) {
         this.log = log;
         return this;
@@ -187,69 +406,145 @@ public class EasyFlow<C extends StatefulContext> extends Flow<C> {
     }
 
     public boolean trigger(final EventEnum event, final C context) throws LogicViolationError {
-        return trigger(event, context, null, false);
+        return accepted(tryTrigger(event, context), event, context);
     }
 
-    public boolean safeTrigger(final EventEnum event, final C context) {
-        try {
-            return trigger(event, context, null, true);
-        } catch (LogicViolationError logicViolationError) {
-            return false;
-        }
+    public boolean conditionTrigger(final EventEnum event, final C context, final StateEnum condition) throws LogicViolationError {
+        return accepted(tryConditionTrigger(event, context, condition), event, context);
     }
 
-    public boolean conditionTrigger(final EventEnum event, final C context, final StateEnum condition) throws LogicViolationError {
-        return trigger(event, context, condition, false);
+    public TriggerResult tryTrigger(final EventEnum event, final C context) {
+        return trigger(event, context, null);
+    }
+
+    public TriggerResult tryConditionTrigger(final EventEnum event, final C context, final StateEnum condition) {
+        return trigger(event, context, condition);
+    }
+
+    private boolean accepted(TriggerResult result, EventEnum event, C context) throws LogicViolationError {
+        if (result == TriggerResult.REJECTED_NO_TRANSITION) {
+            throw new LogicViolationError("Invalid Event: " + event +
+                    " triggered while in State: " + context.getStateValue() + " for " + context);
+        }
+        return result.isAccepted();
     }
 
     /**
      * Concurrent modification of state can cause situation when event and leave handlers are invoked but not enter handlers.
      * If conditional state do not match current, no handlers will be invoked
      */
-    private boolean trigger(final EventEnum event, final C context, final StateEnum condition, final boolean safe)
-            throws LogicViolationError {
+    private TriggerResult trigger(final EventEnum event, final C context, final StateEnum condition) {
 
         if (context.isTerminated()) {
-            return false;
+            return TriggerResult.TERMINATED;
         }
 
         final StateEnum stateFrom = context.getStateValue();
         final Transition transition = transitions.getTransition(stateFrom, event);
 
         if (condition != null && stateFrom != condition) {
-            return false;
+            return TriggerResult.CONDITION_MISMATCH;
         }
 
-        if (transition != null) {
+        if (transition == null) {
+            return TriggerResult.REJECTED_NO_TRANSITION;
+        }
 
-            execute(context, new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        StateEnum stateTo = transition.getStateTo();
-                        if (isTrace())
-                            log.info("when triggered %s in %s for %s <<<", event, stateFrom, context);
+        final Backpressure b = backpressure;
+        final boolean permit = b != null && b.acquire(context);
+        if (b != null && !permit && !b.isCallerRuns()) {
+            return TriggerResult.REJECTED_BACKPRESSURE;
+        }
 
-                        handlers.callOnEventTriggered(event, stateFrom, stateTo, context);
+        final FlowMetrics m = metrics;
+        final long triggered = m != null ? FlowMetrics.now() : 0;
 
-                        if (isTrace())
-                            log.info("when triggered %s in %s for %s >>>", event, stateFrom, context);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    StateEnum stateTo = transition.getStateTo();
+                    long start = 0;
+                    if (recorder != null) {
+                        recorder.record(context, stateFrom, stateTo, event);
+                    }
+                    if (m != null) {
+                        m.queued(event, triggered);
+                        m.transition(stateFrom, event);
+                        start = FlowMetrics.now();
+                    }
 
-                        transit(condition, stateTo, false, context);
-                    } catch (Exception e) {
-                        doOnError(new ExecutionError(stateFrom, event, e,
-                                "Execution Error in [trigger]", context));
+                    if (isTrace())
+                        log.info("when triggered %s in %s for %s <<<", event, stateFrom, context);
+
+                    ListenableFuture<?> pending = handlers.callOnEventTriggered(event, stateFrom, stateTo, context);
+                    if (pending != null) {
+                        proceedWhenDone(pending, condition, stateFrom, stateTo, event, context, m, start);
+                        return;
+                    }
+
+                    if (isTrace())
+                        log.info("when triggered %s in %s for %s >>>", event, stateFrom, context);
+
+                    if (m != null) {
+                        m.eventHandled(event, start);
                     }
 
+                    // target state of another stage is entered on its own executor
+                    if (!singleHop || stages.get(stateTo) != stages.get(stateFrom)) {
+                        transit(condition, stateTo, false, event, context);
+                    } else if (!context.isTerminated()) {
+                        doTransit(condition, stateTo, false, event, context);
+                    }
+                } catch (Exception e) {
+                    doOnError(new ExecutionError(stateFrom, event, e,
+                            "Execution Error in [trigger]", context));
                 }
-            });
+            }
+        };
 
-        } else if (!safe) {
-            throw new LogicViolationError("Invalid Event: " + event +
-                    " triggered while in State: " + context.getStateValue() + " for " + context);
+        try {
+            if (b != null && !permit) {
+                runOnCaller(context, stateFrom, task);
+            } else if (permit) {
+                // the permit is released by the task, so it is dispatched even if the context terminates meanwhile
+                dispatch(context, stateFrom, b.releasing(context, task));
+            } else {
+                execute(context, stateFrom, task);
+            }
+        } catch (RejectedExecutionException e) {
+            if (permit) {
+                b.release(context);
+            }
+            return TriggerResult.REJECTED_BACKPRESSURE;
         }
+        return TriggerResult.ACCEPTED;
+    }
+
+    /**
+     * Continues the transition once an async event handler completes, back on the executor.
+     */
+    private void proceedWhenDone(ListenableFuture<?> pending, final StateEnum condition, final StateEnum stateFrom,
+                                 final StateEnum stateTo, final EventEnum event, final C context,
+                                 final FlowMetrics m, final long start) {
+        Futures.addCallback(pending, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                if (isTrace())
+                    log.info("when triggered %s in %s for %s >>>", event, stateFrom, context);
 
-        return transition != null;
+                if (m != null) {
+                    m.eventHandled(event, start);
+                }
+                transit(condition, stateTo, false, event, context);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                async.failed(new ExecutionError(stateFrom, event, AsyncHandlers.exception(t),
+                        "Execution Error in [whenEvent] async handler", context));
+            }
+        }, MoreExecutors.directExecutor());
     }
 
     private void enter(final StateEnum state, final C context) {
@@ -258,12 +553,23 @@ public class EasyFlow<C extends StatefulContext> extends Flow<C> {
         }
 
         try {
+            if (!transitions.isFinal(state)) {
+                timeouts.onEnter(state, context);
+            }
+
+            FlowMetrics m = metrics;
+            long start = m != null ? m.entering(context) : 0;
+
             // first enter state
             if (isTrace())
                 log.info("when enter %s for %s <<<", state, context);
 
             handlers.callOnStateEntered(state, context);
 
+            if (m != null) {
+                m.entered(state, start);
+            }
+
             if (isTrace())
                 log.info("when enter %s for %s >>>", state, context);
 
@@ -282,11 +588,20 @@ public class EasyFlow<C extends StatefulContext> extends Flow<C> {
         }
 
         try {
+            timeouts.onLeave(context);
+
+            FlowMetrics m = metrics;
+            long start = m != null ? m.leaving(state, context) : 0;
+
             if (isTrace())
                 log.info("when leave %s for %s <<<", state, context);
 
             handlers.callOnStateLeaved(state, context);
 
+            if (m != null) {
+                m.left(state, start);
+            }
+
             if (isTrace())
                 log.info("when leave %s for %s >>>", state, context);
         } catch (Exception e) {
@@ -295,13 +610,24 @@ public class EasyFlow<C extends StatefulContext> extends Flow<C> {
         }
     }
 
+    /**
+     * Checked before building trace arguments, so disabled trace costs no formatting.
+     */
     protected boolean isTrace() {
-        return trace;
+        return trace && log.isInfoEnabled();
     }
 
     protected void doOnError(final ExecutionError error) {
+        C context = (C) error.getContext();
+        if (!context.isTerminated()) {
+            context.setError(error);
+        }
+
         handlers.callOnError(error);
-        doOnTerminate(error.getState(), (C) error.getContext());
+        if (recorder != null) {
+            recorder.dumpOnError(error);
+        }
+        doOnTerminate(error.getState(), context);
     }
 
     public StateEnum getStartState() {
@@ -315,7 +641,15 @@ public class EasyFlow<C extends StatefulContext> extends Flow<C> {
                     log.info("terminating context %s", context);
 
                 context.setTerminated();
+
+                FlowMetrics m = metrics;
+                long start = m != null ? FlowMetrics.now() : 0;
+
                 handlers.callOnFinalState(state, context);
+
+                if (m != null) {
+                    m.finalHandled(start);
+                }
             } catch (Exception e) {
                 log.error("Execution Error in [whenTerminate] handler", e);
             }
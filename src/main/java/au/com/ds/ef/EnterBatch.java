@@ -0,0 +1,123 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.AsyncContextHandler;
+import au.com.ds.ef.call.BatchHandler;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects contexts entering a state into batches handed to a {@link BatchHandler} on the flow executor.
+ * A batch is closed once it has {@code maxSize} contexts or {@code maxDelay} after its first context entered,
+ * all its contexts share one future completed when the handler returns.
+ * Contexts terminated while waiting for the batch are left out.
+ */
+final class EnterBatch<C extends StatefulContext> implements AsyncContextHandler<C> {
+    private final BatchHandler<C> handler;
+    private final int maxSize;
+    private final long maxDelay;
+    private final TimeUnit unit;
+    private final FlowTimeouts timeouts;
+    private final Executor executor;
+
+    // guarded by this
+    private Batch open;
+
+    EnterBatch(BatchHandler<C> handler, int maxSize, long maxDelay, TimeUnit unit,
+               FlowTimeouts timeouts, Executor executor) {
+        if (maxSize < 1 || maxDelay < 0) {
+            throw new IllegalArgumentException("Batch size has to be positive and delay can't be negative.");
+        }
+        this.handler = handler;
+        this.maxSize = maxSize;
+        this.maxDelay = maxDelay;
+        this.unit = unit;
+        this.timeouts = timeouts;
+        this.executor = executor;
+    }
+
+    @Override
+    public ListenableFuture<?> call(C context) {
+        Batch full = null;
+        Batch batch;
+        synchronized (this) {
+            batch = open;
+            if (batch == null) {
+                batch = open = new Batch();
+                batch.timeout = timeouts.timer().schedule(batch, maxDelay, unit);
+            }
+            batch.contexts.add(context);
+            if (batch.contexts.size() >= maxSize) {
+                open = null;
+                full = batch;
+            }
+        }
+
+        if (full != null) {
+            full.timeout.cancel();
+            handle(full);
+        }
+        return batch.done;
+    }
+
+    private synchronized boolean close(Batch batch) {
+        if (open != batch) {
+            return false;
+        }
+        open = null;
+        return true;
+    }
+
+    private void handle(final Batch batch) {
+        try {
+            executor.execute(batch.handling());
+        } catch (RejectedExecutionException e) {
+            batch.done.setException(e);
+        }
+    }
+
+    private final class Batch implements Runnable {
+        final List<C> contexts = new ArrayList<C>();
+        final SettableFuture<Void> done = SettableFuture.create();
+        FlowTimer.Timeout timeout;
+
+        /**
+         * Batch window expired.
+         */
+        @Override
+        public void run() {
+            if (close(this)) {
+                handle(this);
+            }
+        }
+
+        Runnable handling() {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    List<C> running = new ArrayList<C>(contexts.size());
+                    for (C context : contexts) {
+                        if (!context.isTerminated()) {
+                            running.add(context);
+                        }
+                    }
+
+                    try {
+                        if (!running.isEmpty()) {
+                            handler.call(Collections.unmodifiableList(running));
+                        }
+                        done.set(null);
+                    } catch (Exception e) {
+                        done.setException(e);
+                    }
+                }
+            };
+        }
+    }
+}
@@ -1,18 +1,20 @@
 package au.com.ds.ef;
 
+import au.com.ds.ef.call.AsyncContextHandler;
+import au.com.ds.ef.call.BatchHandler;
 import au.com.ds.ef.call.ContextHandler;
 import au.com.ds.ef.call.ExecutionErrorHandler;
 import au.com.ds.ef.call.StateHandler;
 import au.com.ds.ef.err.ExecutionError;
 import au.com.ds.ef.err.LogicViolationError;
-import com.google.common.base.Predicate;
-import com.google.common.collect.FluentIterable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static au.com.ds.ef.HandlerCollection.EventType;
 
@@ -41,11 +43,35 @@ public class EnterFlow<C extends StatefulContext> extends Flow<C> {
     }
 
     private StateEnum startState;
+    private FlowDefinition definition;
     private TransitionCollection transitions;
 
     private Executor executor;
+    private ContextExecutor contextExecutor;
 
     private HandlerCollection handlers = new HandlerCollection();
+    private final AsyncHandlers<C> async = new AsyncHandlers<C>(this) {
+        @Override
+        Executor executor(StateEnum state) {
+            return executorOf(state);
+        }
+
+        @Override
+        void execute(C context, StateEnum state, Runnable task) {
+            EnterFlow.this.execute(context, state, task);
+        }
+
+        @Override
+        void onError(ExecutionError error) {
+            doOnError(error);
+        }
+    };
+    private FlowTimeouts timeouts = new FlowTimeouts();
+    private FlowStages stages = new FlowStages();
+    private FlowMetrics metrics;
+    private FlightRecorder recorder;
+    private TransitionJournal journal;
+    private Backpressure backpressure;
     private boolean trace = false;
 
     protected EnterFlow(StateEnum startState) {
@@ -53,25 +79,44 @@ public class EnterFlow<C extends StatefulContext> extends Flow<C> {
         this.handlers.setHandler(HandlerCollection.EventType.ERROR, null, null, new DefaultErrorHandler());
     }
 
+    protected EnterFlow(FlowDefinition definition) {
+        this(definition.getStartState());
+        define(definition);
+    }
+
     public StateEnum getStartState() {
         return startState;
     }
 
     public void processAllTransitions(boolean skipValidation) {
+        define(FlowDefinition.consume(startState, !skipValidation));
+    }
 
-        List<Transition> cTransitions = FluentIterable.from(Transition.Repository.consume())
-                .filter(new Predicate<Transition>() {
-                    @Override
-                    public boolean apply(Transition t) {
-                        return t.getStateFrom() != null;
-                    }
-                }).toList();
+    public void setTransitions(Collection<Transition> collection, boolean skipValidation) {
+        define(new FlowDefinition(startState, collection, !skipValidation));
+    }
 
-        transitions = new TransitionCollection(cTransitions, !skipValidation);
+    private void define(FlowDefinition definition) {
+        this.definition = definition;
+        transitions = definition.getTransitions();
+        handlers.bind(transitions.getTable());
+        stages.bind(transitions.getTable());
+        if (metrics != null) {
+            metrics.bind(transitions.getTable());
+        }
+        if (recorder != null) {
+            recorder.bind(transitions.getTable());
+        }
+        if (journal != null) {
+            journal.bind(transitions.getTable());
+        }
     }
 
-    public void setTransitions(Collection<Transition> collection, boolean skipValidation) {
-        transitions = new TransitionCollection(collection, !skipValidation);
+    /**
+     * Transitions of this flow, shareable with other flows.
+     */
+    public FlowDefinition getDefinition() {
+        return definition;
     }
 
     public List<Transition> getAvailableTransitions(StateEnum stateFrom) {
@@ -83,11 +128,39 @@ public class EnterFlow<C extends StatefulContext> extends Flow<C> {
         return this;
     }
 
+    /**
+     * Once the future returned by the handler succeeds, {@code onSuccess} is triggered if the context is still
+     * in the state, failure is reported to the error handler. {@code onSuccess} may be null to only wait for errors.
+     */
+    public EnterFlow<C> whenEnter(StateEnum state, AsyncContextHandler<? extends C> onEnter, EventEnum onSuccess) {
+        handlers.setHandler(EventType.STATE_ENTER, state, null, async.enter(state, (AsyncContextHandler<C>) onEnter, onSuccess));
+        return this;
+    }
+
+    /**
+     * Contexts entering the state are collected and handed to the handler at once, see {@link EnterBatch}.
+     * Each context of the batch continues with {@code onSuccess} once the handler returns,
+     * failure of the handler is reported to the error handler of each context.
+     */
+    public EnterFlow<C> whenEnterBatch(StateEnum state, int maxSize, long maxDelay, TimeUnit unit,
+                                       BatchHandler<C> onEnter, EventEnum onSuccess) {
+        return whenEnter(state, async.batch(state, maxSize, maxDelay, unit, onEnter, timeouts), onSuccess);
+    }
+
     public EnterFlow<C> whenEnter(StateHandler<C> onEnter) {
         handlers.setHandler(EventType.ANY_STATE_ENTER, null, null, onEnter);
         return this;
     }
 
+    /**
+     * When the context stays in the state for longer than the delay, the event is triggered.
+     * Timeout is cancelled once the state is left or the context terminates.
+     */
+    public EnterFlow<C> timeout(StateEnum state, long delay, TimeUnit unit, EventEnum event) {
+        timeouts.put(state, delay, unit, event);
+        return this;
+    }
+
     public EnterFlow<C> whenError(ExecutionErrorHandler<C> onError) {
         handlers.setHandler(EventType.ERROR, null, null, onError);
         return this;
@@ -98,8 +171,78 @@ public class EnterFlow<C extends StatefulContext> extends Flow<C> {
         return this;
     }
 
+    /**
+     * Binds the states to a stage with its own executor, so a state calling a slow service can't starve other
+     * states sharing the flow executor. Tasks entering a state run on its stage, event handlers on the stage
+     * of the state the event was triggered in and transitions hop between stages on their own.
+     * A fixed pool per stage limits concurrency of its states, a {@link MailboxExecutor} keeps contexts in order.
+     */
+    public EnterFlow<C> stage(Executor executor, StateEnum... states) {
+        stages.put(executor, states);
+        return this;
+    }
+
     public EnterFlow<C> executor(Executor executor) {
         this.executor = executor;
+        this.contextExecutor = executor instanceof ContextExecutor ? (ContextExecutor) executor : null;
+        return this;
+    }
+
+    /**
+     * Timer for state timeouts and delayed events, {@link FlowTimer#getDefault()} is used if not set.
+     */
+    public EnterFlow<C> timer(FlowTimer timer) {
+        timeouts.setTimer(timer);
+        return this;
+    }
+
+    public FlowTimer.Timeout triggerAfter(EventEnum event, C context, long delay, TimeUnit unit) {
+        return timeouts.triggerAfter(event, context, delay, unit);
+    }
+
+    /**
+     * Records transition counts and handler latencies, see {@link FlowMetrics}.
+     */
+    public EnterFlow<C> metrics(FlowMetrics metrics) {
+        if (transitions != null) {
+            metrics.bind(transitions.getTable());
+        }
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Records recent transitions, see {@link FlightRecorder}.
+     */
+    public EnterFlow<C> recorder(FlightRecorder recorder) {
+        if (transitions != null) {
+            recorder.bind(transitions.getTable());
+        }
+        this.recorder = recorder;
+        return this;
+    }
+
+    /**
+     * Journals every state change, see {@link TransitionJournal}.
+     */
+    public EnterFlow<C> journal(TransitionJournal journal) {
+        if (transitions != null) {
+            journal.bind(transitions.getTable());
+        }
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * Bounds triggers accepted but not entered yet, see {@link Backpressure}.
+     * Permit is taken before the state is changed, so rejected triggers leave the context unchanged.
+     * Triggers rejected by the executor are reported as {@link TriggerResult#REJECTED_BACKPRESSURE} as well,
+     * the context is moved back to the state it was triggered in and the transition is neither recorded nor counted.
+     * If the context was changed again before it could be moved back the trigger is accepted
+     * and the rejection is reported as an error.
+     */
+    public EnterFlow<C> backpressure(Backpressure backpressure) {
+        this.backpressure = backpressure;
         return this;
     }
 
@@ -115,77 +258,255 @@ public class EnterFlow<C extends StatefulContext> extends Flow<C> {
         context.setFlow(this);
 
         if (context.getStateValue() == null) {
-            context.getStateRef().set(startState);
+            TransitionJournal j = journal;
+            if (j != null) {
+                try {
+                    j.append(context, null, startState, null, TransitionJournal.setState(context, startState));
+                } catch (RuntimeException e) {
+                    doOnError(new ExecutionError(startState, null, e, "Execution Error in [journal]", context));
+                    return;
+                }
+            } else {
+                context.setState(startState);
+            }
         }
 
         transit(context.getStateValue(), context);
     }
 
-    public boolean safeTrigger(final EventEnum event, final C context) {
-        throw new UnsupportedOperationException();
-    }
-
     public boolean trigger(final EventEnum event, final C context) throws LogicViolationError {
-        return trigger(event, context, null, 1);
+        return accepted(tryTrigger(event, context), event, context);
     }
 
     public boolean conditionTrigger(final EventEnum event,
                                     final C context,
                                     final StateEnum condition) throws LogicViolationError {
-        return trigger(event, context, condition, 0);
+        return accepted(tryConditionTrigger(event, context, condition), event, context);
+    }
+
+    public TriggerResult tryTrigger(final EventEnum event, final C context) {
+        return admit(event, context, null, 1);
+    }
+
+    public TriggerResult tryConditionTrigger(final EventEnum event, final C context, final StateEnum condition) {
+        return admit(event, context, condition, 0);
+    }
+
+    private TriggerResult admit(EventEnum event, C context, StateEnum condition, int repetition) {
+        Backpressure b = backpressure;
+        if (b == null) {
+            return trigger(event, context, condition, repetition);
+        }
+
+        if (!b.acquire(context)) {
+            return b.isCallerRuns()
+                    ? trigger(event, context, condition, repetition, null, true)
+                    : TriggerResult.REJECTED_BACKPRESSURE;
+        }
+
+        TriggerResult result = trigger(event, context, condition, repetition, b, false);
+        if (result != TriggerResult.ACCEPTED) {
+            b.release(context);
+        }
+        return result;
+    }
+
+    private boolean accepted(TriggerResult result, EventEnum event, C context) throws LogicViolationError {
+        if (result == TriggerResult.REJECTED_NO_TRANSITION) {
+            throw new LogicViolationError(String.format("Invalid Event: %s triggered while in State: %s for %s",
+                    event, context.getStateValue(), context));
+        }
+        return result.isAccepted();
     }
 
     /**
      * If condition state do not match current, no handlers will be invoked.
      *
      * @param repetition - describe how many times we can try to change state
-     * @return true - state changed, transtion scheduled
-     * @throws LogicViolationError
+     * @return ACCEPTED - state changed, transtion scheduled
      */
-    boolean trigger(final EventEnum event, final C context, StateEnum condition, int repetition) throws LogicViolationError {
+    TriggerResult trigger(final EventEnum event, final C context, StateEnum condition, int repetition) {
+        return trigger(event, context, condition, repetition, null, false);
+    }
+
+    /**
+     * @param permit - backpressure to release once the state is entered, null if no permit is held
+     * @param callerRuns - enter the state on the calling thread
+     */
+    private TriggerResult trigger(final EventEnum event, final C context, StateEnum condition, int repetition,
+                                  Backpressure permit, boolean callerRuns) {
 
         if (context.isTerminated()) {
-            return false;
+            return TriggerResult.TERMINATED;
         }
 
         final StateEnum stateFrom = context.getStateValue();
         if (condition != null && stateFrom != condition) {
             logger.trace("Current state is different than expected in condition.");
-            return false;
+            return TriggerResult.CONDITION_MISMATCH;
         }
 
         final Transition transition = transitions.getTransition(stateFrom, event);
 
         if (transition == null) {
-            throw new LogicViolationError(String.format("Invalid Event: %s triggered while in State: %s for %s",
-                    event, stateFrom, context));
+            return TriggerResult.REJECTED_NO_TRANSITION;
         }
 
         try {
-            if (context.getStateRef().compareAndSet(stateFrom, transition.getStateTo())) {
-                transit(transition.getStateTo(), context);
+            TransitionJournal j = journal;
+            long sequence = compareAndSetState(j, context, stateFrom, transition.getStateTo());
+            if (sequence > 0) {
+                if (j != null) {
+                    j.append(context, stateFrom, transition.getStateTo(), event, sequence);
+                }
+                timeouts.onLeave(context);
+
+                // recorded once entering the target state is accepted, captured before it can be entered
+                final FlowMetrics m = metrics;
+                final long entered = m != null ? context.getStateEnteredNanos() : 0;
+                final long left = m != null ? FlowMetrics.now() : 0;
+                try {
+                    if (callerRuns) {
+                        final StateEnum stateTo = transition.getStateTo();
+                        runOnCaller(stateTo, context, new Runnable() {
+                            @Override
+                            public void run() {
+                                left(stateFrom, stateTo, event, context, m, entered, left);
+                                enter(stateTo, context);
+                            }
+                        });
+                        return TriggerResult.ACCEPTED;
+                    }
+                    transit(transition.getStateTo(), event, context, permit);
+                } catch (RejectedExecutionException e) {
+                    if (restore(stateFrom, transition.getStateTo(), context)) {
+                        // the permit is released by admit
+                        return TriggerResult.REJECTED_BACKPRESSURE;
+                    }
+
+                    // the context moved on already, the transition took place without entering the state
+                    if (permit != null) {
+                        permit.release(context);
+                    }
+                    left(stateFrom, transition.getStateTo(), event, context, m, entered, left);
+                    doOnError(new ExecutionError(transition.getStateTo(), event, e,
+                            "Execution Error in [trigger]", context));
+                    return TriggerResult.ACCEPTED;
+                }
+                // released by the submitted task from now on
+                permit = null;
+                left(stateFrom, transition.getStateTo(), event, context, m, entered, left);
             } else {
 
                 if (repetition > 0) {
                     logger.info("Fail to change state due to parallel context change.");
-                    return trigger(event, context, null, --repetition);
+                    return trigger(event, context, null, --repetition, permit, callerRuns);
                 }
-                return false;
+                return TriggerResult.CAS_LOST;
             }
         } catch (Exception e) {
+            if (permit != null) {
+                permit.release(context);
+            }
             doOnError(new ExecutionError(stateFrom, event, e, "Execution Error in [trigger]", context));
         }
+        return TriggerResult.ACCEPTED;
+    }
+
+    /**
+     * Records the accepted transition.
+     */
+    private void left(StateEnum stateFrom, StateEnum stateTo, EventEnum event, C context,
+                      FlowMetrics m, long entered, long left) {
+        if (recorder != null) {
+            recorder.record(context, stateFrom, stateTo, event);
+        }
+        if (m != null) {
+            m.dwelled(stateFrom, entered, left);
+            m.transition(stateFrom, event);
+        }
+    }
+
+    /**
+     * Moves the context back to the state it was triggered in when entering the target state was rejected.
+     *
+     * @return false if the context was changed again meanwhile
+     */
+    private boolean restore(StateEnum stateFrom, StateEnum stateTo, C context) {
+        TransitionJournal j = journal;
+        long sequence = compareAndSetState(j, context, stateTo, stateFrom);
+        if (sequence == 0) {
+            return false;
+        }
+        if (j != null) {
+            j.append(context, stateTo, stateFrom, null, sequence);
+        }
+        timeouts.onEnter(stateFrom, context);
         return true;
     }
 
+    /**
+     * @return sequence of the change for the journal, positive if the state was changed
+     */
+    private static long compareAndSetState(TransitionJournal journal, StatefulContext context,
+                                           StateEnum expected, StateEnum target) {
+        if (journal != null) {
+            return TransitionJournal.compareAndSetState(context, expected, target);
+        }
+        return context.compareAndSetState(expected, target) ? 1 : 0;
+    }
+
     void transit(final StateEnum targetState, final C context) {
+        transit(targetState, null, context, null);
+    }
+
+    private void transit(final StateEnum targetState, final EventEnum event, final C context, Backpressure permit) {
         if (!context.isTerminated()) {
-            executor.execute(new Runnable() {
+            final FlowMetrics m = event != null ? metrics : null;
+            final long triggered = m != null ? FlowMetrics.now() : 0;
+
+            Runnable task = new Runnable() {
                 @Override
                 public void run() {
+                    if (m != null) {
+                        m.queued(event, triggered);
+                    }
                     enter(targetState, context);
                 }
-            });
+            };
+            execute(context, targetState, permit != null ? permit.releasing(context, task) : task);
+        } else if (permit != null) {
+            permit.release(context);
+        }
+    }
+
+    /**
+     * Runs the task entering the state on the calling thread, in order with tasks of the context.
+     */
+    private void runOnCaller(StateEnum targetState, C context, Runnable task) {
+        FlowStages.runOnCaller(executorOf(targetState), context, task);
+    }
+
+    private Executor executorOf(StateEnum state) {
+        Executor stage = stages.get(state);
+        return stage != null ? stage : executor;
+    }
+
+    protected void execute(final C context, Runnable task) {
+        execute(context, context.getStateValue(), task);
+    }
+
+    /**
+     * @param state - state the task runs in, picks the executor of its stage
+     */
+    private void execute(C context, StateEnum state, Runnable task) {
+        Executor stage = stages.get(state);
+        if (stage != null) {
+            FlowStages.execute(stage, context, task);
+        } else if (contextExecutor != null) {
+            contextExecutor.execute(context, task);
+        } else {
+            executor.execute(task);
         }
     }
 
@@ -196,10 +517,21 @@ public class EnterFlow<C extends StatefulContext> extends Flow<C> {
         }
 
         try {
+            if (!transitions.isFinal(state)) {
+                timeouts.onEnter(state, context);
+            }
+
+            FlowMetrics m = metrics;
+            long start = m != null ? m.entering(context) : 0;
+
             logger.trace("When enter {} for {} <<<", state, context);
 
             handlers.callOnStateEntered(state, context);
 
+            if (m != null) {
+                m.entered(state, start);
+            }
+
             logger.trace("When enter {} for {} >>>", state, context);
 
             if (transitions.isFinal(state)) {
@@ -211,8 +543,16 @@ public class EnterFlow<C extends StatefulContext> extends Flow<C> {
     }
 
     protected void doOnError(final ExecutionError error) {
+        C context = (C) error.getContext();
+        if (!context.isTerminated()) {
+            context.setError(error);
+        }
+
         handlers.callOnError(error);
-        doOnTerminate(error.getState(), (C) error.getContext());
+        if (recorder != null) {
+            recorder.dumpOnError(error);
+        }
+        doOnTerminate(error.getState(), context);
     }
 
     protected void doOnTerminate(StateEnum state, final C context) {
@@ -221,7 +561,15 @@ public class EnterFlow<C extends StatefulContext> extends Flow<C> {
                 logger.trace("Terminating context {}", context);
 
                 context.setTerminated();
+
+                FlowMetrics m = metrics;
+                long start = m != null ? FlowMetrics.now() : 0;
+
                 handlers.callOnFinalState(state, context);
+
+                if (m != null) {
+                    m.finalHandled(start);
+                }
             } catch (Exception e) {
                 logger.error("Execution Error in [whenTerminate] handler", e);
             }
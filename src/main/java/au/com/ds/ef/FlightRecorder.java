@@ -0,0 +1,226 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.err.ExecutionError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Always-on record of recent transitions, kept in fixed-size lock-free ring buffers of primitives:
+ * one shared by all contexts of the flow and optionally one per context.
+ * Recording a transition does not allocate, the per-context buffer is created with the first transition of a context.
+ * <p>
+ * Entries are read with {@link #dump()} or {@link #dump(StatefulContext)}, recent transitions of a context are also
+ * logged when the context fails.
+ */
+public class FlightRecorder {
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecorder.class);
+
+    private static final int ORDINAL_BITS = 21;
+    private static final long ORDINAL_MASK = (1L << ORDINAL_BITS) - 1;
+
+    private final Ring global;
+    private final int perContextCapacity;
+    private volatile TransitionTable table;
+
+    /**
+     * Keeps 4096 recent transitions of all contexts.
+     */
+    public FlightRecorder() {
+        this(4096, 0);
+    }
+
+    /**
+     * @param capacity - number of recent transitions of all contexts, rounded up to power of two
+     * @param perContextCapacity - number of recent transitions kept by each context, 0 to only keep the shared buffer
+     */
+    public FlightRecorder(int capacity, int perContextCapacity) {
+        if (capacity < 1 || perContextCapacity < 0) {
+            throw new IllegalArgumentException("Capacity has to be positive.");
+        }
+        this.global = new Ring(capacity);
+        this.perContextCapacity = perContextCapacity;
+    }
+
+    void bind(TransitionTable table) {
+        this.table = table;
+    }
+
+    void record(StatefulContext context, StateEnum stateFrom, StateEnum stateTo, EventEnum event) {
+        TransitionTable t = table;
+        if (t == null) {
+            return;
+        }
+
+        long packed = pack(t.states().indexOf(stateFrom), t.states().indexOf(stateTo), t.events().indexOf(event));
+        long nanos = System.nanoTime();
+        long thread = Thread.currentThread().getId();
+        long id = context.getIdNumber();
+
+        global.add(id, nanos, thread, packed);
+        if (perContextCapacity > 0) {
+            context.getFlightLog(perContextCapacity).add(id, nanos, thread, packed);
+        }
+    }
+
+    private static long pack(int from, int to, int event) {
+        return (from & ORDINAL_MASK) << (2 * ORDINAL_BITS) | (to & ORDINAL_MASK) << ORDINAL_BITS | (event & ORDINAL_MASK);
+    }
+
+    /**
+     * @return recent transitions of all contexts, oldest first
+     */
+    public List<Entry> dump() {
+        return entries(global, -1);
+    }
+
+    /**
+     * @return recent transitions of the context, oldest first
+     */
+    public List<Entry> dump(StatefulContext context) {
+        Ring ring = context.getFlightLogIfAny();
+        return ring != null ? entries(ring, -1) : entries(global, context.getIdNumber());
+    }
+
+    void dumpOnError(ExecutionError error) {
+        StatefulContext context = error.getContext();
+        if (context == null || !logger.isWarnEnabled()) {
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder("Recent transitions of ").append(context).append(':');
+        for (Entry entry : dump(context)) {
+            sb.append("\n  ").append(entry);
+        }
+        logger.warn(sb.toString());
+    }
+
+    private List<Entry> entries(Ring ring, long contextId) {
+        TransitionTable t = table;
+        if (t == null) {
+            return Collections.emptyList();
+        }
+
+        List<Entry> result = new ArrayList<Entry>();
+        long[] entry = new long[Ring.FIELDS];
+        long last = ring.sequence.get();
+        for (long seq = Math.max(0, last - ring.capacity); seq < last; seq++) {
+            if (ring.read(seq, entry) && (contextId < 0 || entry[0] == contextId)) {
+                long packed = entry[3];
+                result.add(new Entry(entry[0], entry[1], entry[2],
+                        ordinal(t.states(), packed >>> (2 * ORDINAL_BITS)),
+                        ordinal(t.states(), packed >>> ORDINAL_BITS),
+                        ordinal(t.events(), packed)));
+            }
+        }
+        return result;
+    }
+
+    private static <T> T ordinal(Ordinals<T> ordinals, long bits) {
+        int index = (int) (bits & ORDINAL_MASK);
+        return index < ordinals.size() ? ordinals.valueOf(index) : null;
+    }
+
+    public static final class Entry {
+        private final long contextId;
+        private final long nanoTime;
+        private final long threadId;
+        private final StateEnum stateFrom;
+        private final StateEnum stateTo;
+        private final EventEnum event;
+
+        Entry(long contextId, long nanoTime, long threadId, StateEnum stateFrom, StateEnum stateTo, EventEnum event) {
+            this.contextId = contextId;
+            this.nanoTime = nanoTime;
+            this.threadId = threadId;
+            this.stateFrom = stateFrom;
+            this.stateTo = stateTo;
+            this.event = event;
+        }
+
+        public long getContextId() {
+            return contextId;
+        }
+
+        /**
+         * @return {@link System#nanoTime()} of the transition
+         */
+        public long getNanoTime() {
+            return nanoTime;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public StateEnum getStateFrom() {
+            return stateFrom;
+        }
+
+        public StateEnum getStateTo() {
+            return stateTo;
+        }
+
+        public EventEnum getEvent() {
+            return event;
+        }
+
+        @Override
+        public String toString() {
+            return nanoTime + " [" + threadId + "] " + contextId + ": " + stateFrom + " -" + event + "-> " + stateTo;
+        }
+    }
+
+    /**
+     * Ring buffer of entries of four longs. Every slot starts with a stamp which is cleared before the entry is
+     * written and set to the sequence of the entry afterwards, so readers skip entries being overwritten.
+     */
+    static final class Ring {
+        static final int FIELDS = 4;
+        private static final int STRIDE = FIELDS + 1;
+
+        private final AtomicLongArray slots;
+        private final AtomicLong sequence = new AtomicLong();
+        private final int capacity;
+        private final int mask;
+
+        Ring(int capacity) {
+            int size = 1;
+            while (size < capacity) {
+                size <<= 1;
+            }
+            this.capacity = size;
+            this.mask = size - 1;
+            this.slots = new AtomicLongArray(size * STRIDE);
+        }
+
+        void add(long context, long nanos, long thread, long packed) {
+            long seq = sequence.getAndIncrement();
+            int base = (int) (seq & mask) * STRIDE;
+
+            slots.lazySet(base, 0);
+            slots.lazySet(base + 1, context);
+            slots.lazySet(base + 2, nanos);
+            slots.lazySet(base + 3, thread);
+            slots.lazySet(base + 4, packed);
+            slots.lazySet(base, seq + 1);
+        }
+
+        boolean read(long seq, long[] entry) {
+            int base = (int) (seq & mask) * STRIDE;
+            if (slots.get(base) != seq + 1) {
+                return false;
+            }
+
+            for (int i = 0; i < FIELDS; i++) {
+                entry[i] = slots.get(base + 1 + i);
+            }
+            return slots.get(base) == seq + 1;
+        }
+    }
+}
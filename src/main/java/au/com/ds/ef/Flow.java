@@ -1,10 +1,18 @@
 package au.com.ds.ef;
 
+import au.com.ds.ef.call.AsyncContextHandler;
+import au.com.ds.ef.call.BatchHandler;
 import au.com.ds.ef.call.ContextHandler;
 import au.com.ds.ef.call.EventHandler;
 import au.com.ds.ef.call.ExecutionErrorHandler;
 import au.com.ds.ef.call.StateHandler;
 import au.com.ds.ef.err.LogicViolationError;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public abstract class Flow<C extends StatefulContext> implements TransitonManager {
 
@@ -12,17 +20,71 @@ public abstract class Flow<C extends StatefulContext> implements TransitonManage
         context.awaitTermination();
     }
 
+    public ListenableFuture<StateEnum> completionOf(C context) {
+        return context.getCompletion();
+    }
+
+    /**
+     * Completes with final states of all contexts, in the same order,
+     * or fails with the first {@link au.com.ds.ef.err.ExecutionError}.
+     */
+    public static ListenableFuture<List<StateEnum>> allCompleted(Iterable<? extends StatefulContext> contexts) {
+        return Futures.allAsList(completions(contexts));
+    }
+
+    /**
+     * Completes once all contexts terminate, failed contexts are reported with {@code null} state.
+     */
+    public static ListenableFuture<List<StateEnum>> allTerminated(Iterable<? extends StatefulContext> contexts) {
+        return Futures.successfulAsList(completions(contexts));
+    }
+
+    private static List<ListenableFuture<StateEnum>> completions(Iterable<? extends StatefulContext> contexts) {
+        List<ListenableFuture<StateEnum>> futures = Lists.newArrayList();
+        for (StatefulContext context : contexts) {
+            futures.add(context.getCompletion());
+        }
+        return futures;
+    }
+
     public void start(final C context) {
         start(false, context);
     }
 
     abstract public void start(boolean enterInitialState, final C context);
 
+    /**
+     * Starts the context in the given state instead of the start state and enters it,
+     * e.g. to resume a context recovered from a {@link TransitionJournal}.
+     *
+     * @throws IllegalStateException if the context was started already
+     */
+    public void start(final C context, StateEnum state) {
+        if (context.isStarted()) {
+            throw new IllegalStateException("Context " + context + " was started already.");
+        }
+        context.setState(state);
+        start(true, context);
+    }
+
 
     abstract public Flow<C> whenEnter(StateEnum state, ContextHandler<? extends C> onEnter);
 
     abstract public Flow<C> whenEnter(StateHandler<C> onEnter);
 
+    /**
+     * Once the future returned by the handler succeeds, {@code onSuccess} is triggered if the context is still
+     * in the state, failure is reported to the error handler.
+     */
+    public Flow<C> whenEnter(StateEnum state, AsyncContextHandler<? extends C> onEnter, EventEnum onSuccess) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Flow<C> whenEnterBatch(StateEnum state, int maxSize, long maxDelay, TimeUnit unit,
+                                  BatchHandler<C> onEnter, EventEnum onSuccess) {
+        throw new UnsupportedOperationException();
+    }
+
     abstract public Flow<C> whenError(ExecutionErrorHandler<C> onError);
 
     abstract public Flow<C> whenFinalState(StateHandler<C> onFinalState);
@@ -43,10 +105,33 @@ public abstract class Flow<C extends StatefulContext> implements TransitonManage
         throw new UnsupportedOperationException();
     }
 
+    public Flow<C> whenEvent(EventEnum event, AsyncContextHandler<C> onEvent) {
+        throw new UnsupportedOperationException();
+    }
 
-    abstract public boolean trigger(final EventEnum event, final C context) throws LogicViolationError;
 
-    abstract public boolean safeTrigger(final EventEnum event, final C context);
+    abstract public boolean trigger(final EventEnum event, final C context) throws LogicViolationError;
 
     abstract public boolean conditionTrigger(final EventEnum event, final C context, final StateEnum condition) throws LogicViolationError;
+
+    /**
+     * Same as {@link #trigger(EventEnum, StatefulContext)} but reports rejection with a result code
+     * instead of throwing {@link LogicViolationError}.
+     */
+    abstract public TriggerResult tryTrigger(final EventEnum event, final C context);
+
+    /**
+     * Same as {@link #conditionTrigger(EventEnum, StatefulContext, StateEnum)} but reports rejection with a result code
+     * instead of throwing {@link LogicViolationError}.
+     */
+    abstract public TriggerResult tryConditionTrigger(final EventEnum event, final C context, final StateEnum condition);
+
+    /**
+     * Triggers the event after the delay on the flow timer, cancelled when the context terminates.
+     */
+    abstract public FlowTimer.Timeout triggerAfter(final EventEnum event, final C context, long delay, TimeUnit unit);
+
+    public boolean safeTrigger(final EventEnum event, final C context) {
+        return tryTrigger(event, context).isAccepted();
+    }
 }
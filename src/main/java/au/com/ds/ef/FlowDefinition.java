@@ -0,0 +1,119 @@
+package au.com.ds.ef;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.FluentIterable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, validated transitions of a flow. Built once and instantiated into any number of flows,
+ * each with its own handlers and executor, all sharing the same compiled transition table:
+ * <pre>
+ * FlowDefinition definition = FlowDefinition.from(START).transit(...);
+ * EasyFlow&lt;OrderContext&gt; flow = definition.easyFlow();
+ * </pre>
+ * Definition of a flow built by {@link FlowBuilder} is available from {@code flow.getDefinition()}.
+ */
+public final class FlowDefinition {
+    private final StateEnum startState;
+    private final TransitionCollection transitions;
+
+    FlowDefinition(StateEnum startState, Collection<Transition> transitions, boolean validate) {
+        this(startState, transitions, Collections.<StateEnum, List<Transition>>emptyMap(), validate);
+    }
+
+    FlowDefinition(StateEnum startState, Collection<Transition> transitions,
+                   Map<StateEnum, List<Transition>> fallbacks, boolean validate) {
+        this.startState = startState;
+        this.transitions = new TransitionCollection(transitions, fallbacks, validate);
+    }
+
+    /**
+     * Definition of transitions created by the DSL on this thread.
+     */
+    static FlowDefinition consume(StateEnum startState, boolean validate) {
+        return of(startState, Transition.Repository.detach(), validate);
+    }
+
+    /**
+     * Definition of transitions created by the DSL, skipping default transitions which were not connected to any state.
+     */
+    static FlowDefinition of(StateEnum startState, Transition.Repository repository, boolean validate) {
+        List<Transition> transitions = FluentIterable.from(repository.created())
+                .filter(new Predicate<Transition>() {
+                    @Override
+                    public boolean apply(Transition t) {
+                        return t.getStateFrom() != null;
+                    }
+                }).toList();
+
+        return new FlowDefinition(startState, transitions, repository.fallbacks(), validate);
+    }
+
+    public static Builder from(StateEnum startState) {
+        return new Builder(startState, null);
+    }
+
+    public static Builder from(StateEnum startState, List<Transition> dt) {
+        ToHolder.resetDefaultTransitions(dt);
+        return new Builder(startState, null);
+    }
+
+    public static FlowDefinition fromTransitions(
+            StateEnum startState, Collection<Transition> transitions, boolean skipValidation) {
+        return new FlowDefinition(startState, transitions, !skipValidation);
+    }
+
+    public StateEnum getStartState() {
+        return startState;
+    }
+
+    public List<Transition> getAvailableTransitions(StateEnum stateFrom) {
+        return transitions.getTransitions(stateFrom);
+    }
+
+    TransitionCollection getTransitions() {
+        return transitions;
+    }
+
+    public <C extends StatefulContext> EasyFlow<C> easyFlow() {
+        return new EasyFlow<C>(this);
+    }
+
+    public <C extends StatefulContext> EnterFlow<C> enterFlow() {
+        return new EnterFlow<C>(this);
+    }
+
+    public static final class Builder {
+        private final StateEnum startState;
+        private final FlowScope scope;
+
+        Builder(StateEnum startState, FlowScope scope) {
+            this.startState = startState;
+            this.scope = scope;
+        }
+
+        public FlowDefinition transit(Transition... transitions) {
+            List<Transition> dt = scope != null ? scope.defaultTransitions() : ToHolder.getDefaultTransitions();
+            return transit(false, dt, transitions);
+        }
+
+        public FlowDefinition transit(boolean skipValidation, List<Transition> dt, Transition... transitions) {
+            List<Transition> list = TransitionUtil.composeTransitions(dt, transitions);
+            for (Transition t : list)
+                t.propagateStateFrom(startState);
+
+            if (scope != null) {
+                try {
+                    return of(startState, scope.repository(), !skipValidation);
+                } finally {
+                    scope.repository().clear();
+                }
+            }
+            return consume(startState, !skipValidation);
+        }
+    }
+}
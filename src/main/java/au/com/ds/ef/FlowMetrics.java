@@ -0,0 +1,278 @@
+package au.com.ds.ef;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Transition counts and handler latencies of a flow, keyed by state and event ordinals.
+ * Enabled with {@code flow.metrics(new FlowMetrics())}, flows without metrics only pay a null check.
+ * <p>
+ * Records:
+ * <ul>
+ * <li>number of transitions per (state, event)</li>
+ * <li>execution time of enter, leave, event and final state handlers</li>
+ * <li>queueing delay between trigger and start of the handlers of the event</li>
+ * <li>time spent in each state</li>
+ * </ul>
+ * Counters are striped by thread and padded, histograms of a state are created on its first use.
+ */
+public class FlowMetrics {
+    static final int STRIPES = stripes();
+    // one counter per cache line
+    static final int PAD = 3;
+
+    private static final int ENTER = 0;
+    private static final int LEAVE = 1;
+    private static final int DWELL = 2;
+    private static final int EVENT = 0;
+    private static final int QUEUE = 1;
+
+    private static int stripes() {
+        int n = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+        int s = 1;
+        while (s < n) {
+            s <<= 1;
+        }
+        return s;
+    }
+
+    /**
+     * @return stripe of counters updated by the current thread
+     */
+    static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    private static final class Data {
+        private final Ordinals<StateEnum> states;
+        private final Ordinals<EventEnum> events;
+        // per state row of striped counters indexed by event
+        private final AtomicReferenceArray<AtomicLongArray> transitions;
+        // [state * 3 + ENTER|LEAVE|DWELL]
+        private final AtomicReferenceArray<LatencyHistogram> stateTimes;
+        // [event * 2 + EVENT|QUEUE]
+        private final AtomicReferenceArray<LatencyHistogram> eventTimes;
+        private final LatencyHistogram finalTimes = new LatencyHistogram();
+
+        Data(Ordinals<StateEnum> states, Ordinals<EventEnum> events) {
+            this.states = states;
+            this.events = events;
+            this.transitions = new AtomicReferenceArray<AtomicLongArray>(states.size());
+            this.stateTimes = new AtomicReferenceArray<LatencyHistogram>(states.size() * 3);
+            this.eventTimes = new AtomicReferenceArray<LatencyHistogram>(events.size() * 2);
+        }
+
+        void recordState(StateEnum state, int kind, long nanos) {
+            int s = states.indexOf(state);
+            if (s >= 0) {
+                histogram(stateTimes, s * 3 + kind).record(nanos);
+            }
+        }
+
+        void recordEvent(EventEnum event, int kind, long nanos) {
+            int e = events.indexOf(event);
+            if (e >= 0) {
+                histogram(eventTimes, e * 2 + kind).record(nanos);
+            }
+        }
+
+        void count(StateEnum state, EventEnum event) {
+            int s = states.indexOf(state);
+            int e = events.indexOf(event);
+            if (s < 0 || e < 0) {
+                return;
+            }
+
+            AtomicLongArray row = transitions.get(s);
+            if (row == null) {
+                row = new AtomicLongArray((events.size() * STRIPES) << PAD);
+                if (!transitions.compareAndSet(s, null, row)) {
+                    row = transitions.get(s);
+                }
+            }
+            row.incrementAndGet((e * STRIPES + stripe()) << PAD);
+        }
+
+        long count(int s, int e) {
+            AtomicLongArray row = transitions.get(s);
+            if (row == null) {
+                return 0;
+            }
+
+            long sum = 0;
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                sum += row.get((e * STRIPES + stripe) << PAD);
+            }
+            return sum;
+        }
+
+        private static LatencyHistogram histogram(AtomicReferenceArray<LatencyHistogram> array, int i) {
+            LatencyHistogram h = array.get(i);
+            if (h == null) {
+                h = new LatencyHistogram();
+                if (!array.compareAndSet(i, null, h)) {
+                    h = array.get(i);
+                }
+            }
+            return h;
+        }
+    }
+
+    private volatile Data data = new Data(
+            Ordinals.of(Collections.<StateEnum>emptyList()), Ordinals.of(Collections.<EventEnum>emptyList()));
+
+    /**
+     * Resets metrics to ordinals of the flow transitions.
+     */
+    void bind(TransitionTable table) {
+        data = new Data(table.states(), table.events());
+    }
+
+    static long now() {
+        return System.nanoTime();
+    }
+
+    void transition(StateEnum stateFrom, EventEnum event) {
+        data.count(stateFrom, event);
+    }
+
+    void queued(EventEnum event, long triggered) {
+        data.recordEvent(event, QUEUE, now() - triggered);
+    }
+
+    void eventHandled(EventEnum event, long start) {
+        data.recordEvent(event, EVENT, now() - start);
+    }
+
+    /**
+     * @return start time of the enter handlers, also remembered as the time the context entered the state
+     */
+    long entering(StatefulContext context) {
+        long start = now();
+        context.setStateEnteredNanos(start);
+        return start;
+    }
+
+    void entered(StateEnum state, long start) {
+        data.recordState(state, ENTER, now() - start);
+    }
+
+    /**
+     * Records time spent in the state.
+     */
+    long leaving(StateEnum state, StatefulContext context) {
+        long start = now();
+        dwelled(state, context.getStateEnteredNanos(), start);
+        return start;
+    }
+
+    /**
+     * Records time spent in the state once leaving it is known to proceed.
+     *
+     * @param entered - {@link StatefulContext#getStateEnteredNanos()} when the state was left, 0 if unknown
+     */
+    void dwelled(StateEnum state, long entered, long left) {
+        if (entered != 0) {
+            data.recordState(state, DWELL, left - entered);
+        }
+    }
+
+    void left(StateEnum state, long start) {
+        data.recordState(state, LEAVE, now() - start);
+    }
+
+    void finalHandled(long start) {
+        data.finalTimes.record(now() - start);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(data);
+    }
+
+    /**
+     * Copy of metrics, histograms of states and events which were never recorded are empty.
+     */
+    public static final class Snapshot {
+        private final Ordinals<StateEnum> states;
+        private final Ordinals<EventEnum> events;
+        private final long[][] transitions;
+        private final LatencyHistogram.Snapshot[] stateTimes;
+        private final LatencyHistogram.Snapshot[] eventTimes;
+        private final LatencyHistogram.Snapshot finalTimes;
+
+        private Snapshot(Data data) {
+            states = data.states;
+            events = data.events;
+
+            transitions = new long[states.size()][];
+            for (int s = 0; s < transitions.length; s++) {
+                if (data.transitions.get(s) != null) {
+                    transitions[s] = new long[events.size()];
+                    for (int e = 0; e < events.size(); e++) {
+                        transitions[s][e] = data.count(s, e);
+                    }
+                }
+            }
+
+            stateTimes = copy(data.stateTimes);
+            eventTimes = copy(data.eventTimes);
+            finalTimes = data.finalTimes.snapshot();
+        }
+
+        private static LatencyHistogram.Snapshot[] copy(AtomicReferenceArray<LatencyHistogram> array) {
+            LatencyHistogram.Snapshot[] result = new LatencyHistogram.Snapshot[array.length()];
+            for (int i = 0; i < result.length; i++) {
+                LatencyHistogram h = array.get(i);
+                result[i] = h != null ? h.snapshot() : LatencyHistogram.Snapshot.EMPTY;
+            }
+            return result;
+        }
+
+        public long getTransitionCount(StateEnum stateFrom, EventEnum event) {
+            int s = states.indexOf(stateFrom);
+            int e = events.indexOf(event);
+            return s < 0 || e < 0 || transitions[s] == null ? 0 : transitions[s][e];
+        }
+
+        public LatencyHistogram.Snapshot getEnterTime(StateEnum state) {
+            return state(state, ENTER);
+        }
+
+        public LatencyHistogram.Snapshot getLeaveTime(StateEnum state) {
+            return state(state, LEAVE);
+        }
+
+        /**
+         * Time between entering and leaving the state.
+         */
+        public LatencyHistogram.Snapshot getDwellTime(StateEnum state) {
+            return state(state, DWELL);
+        }
+
+        public LatencyHistogram.Snapshot getEventTime(EventEnum event) {
+            return event(event, EVENT);
+        }
+
+        /**
+         * Time between trigger of the event and start of its handlers.
+         */
+        public LatencyHistogram.Snapshot getQueueDelay(EventEnum event) {
+            return event(event, QUEUE);
+        }
+
+        public LatencyHistogram.Snapshot getFinalTime() {
+            return finalTimes;
+        }
+
+        private LatencyHistogram.Snapshot state(StateEnum state, int kind) {
+            int s = states.indexOf(state);
+            return s < 0 ? LatencyHistogram.Snapshot.EMPTY : stateTimes[s * 3 + kind];
+        }
+
+        private LatencyHistogram.Snapshot event(EventEnum event, int kind) {
+            int e = events.indexOf(event);
+            return e < 0 ? LatencyHistogram.Snapshot.EMPTY : eventTimes[e * 2 + kind];
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package au.com.ds.ef;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Explicit scope of the transitions DSL, an alternative to the static {@link ToHolder} methods which keep
+ * created transitions and default transitions in thread locals.
+ * Every scope collects its own transitions, so flows can be built in parallel, one scope per building thread:
+ * <pre>
+ * FlowScope s = new FlowScope();
+ * FlowDefinition definition = s.from(START).transit(
+ *         s.on(next).to(STATE_1).transit(
+ *                 s.emit(done)
+ *         )
+ * );
+ * </pre>
+ * A scope is not thread-safe, transitions of one definition have to be created in the same scope.
+ * It is emptied by each built definition and can be reused for the next one.
+ */
+public final class FlowScope {
+    private final Transition.Repository repository = new Transition.Repository();
+    private List<Transition> defaultTransitions = new ArrayList<Transition>();
+
+    public ToHolder on(EventEnum... event) {
+        return new ToHolder(this, event);
+    }
+
+    public Transition emit(EventEnum event) {
+        return RegularTransition.createSingleTransition(event, null, false, repository);
+    }
+
+    public FlowDefinition.Builder from(StateEnum startState) {
+        return from(startState, null);
+    }
+
+    /**
+     * @param dt - default transitions of every state, created with this scope
+     */
+    public FlowDefinition.Builder from(StateEnum startState, List<Transition> dt) {
+        resetDefaultTransitions(dt);
+        return new FlowDefinition.Builder(startState, this);
+    }
+
+    public IncompleteTransition subFlowFrom(StateEnum startState) {
+        return subFlowFrom(startState, null);
+    }
+
+    public IncompleteTransition subFlowFrom(StateEnum startState, List<Transition> dt) {
+        resetDefaultTransitions(dt);
+        return new IncompleteTransition(startState, dt, repository);
+    }
+
+    private void resetDefaultTransitions(List<Transition> dt) {
+        defaultTransitions = dt != null ? dt : new ArrayList<Transition>();
+    }
+
+    List<Transition> defaultTransitions() {
+        return defaultTransitions;
+    }
+
+    Transition.Repository repository() {
+        return repository;
+    }
+}
@@ -0,0 +1,109 @@
+package au.com.ds.ef;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executors of states bound to stages of a flow, states without a stage use the flow executor.
+ * Once bound to the transition table executors are looked up by state ordinal.
+ */
+final class FlowStages {
+    private static final Executor DIRECT = MoreExecutors.directExecutor();
+
+    // guarded by this
+    private final Map<StateEnum, Executor> registered = new HashMap<StateEnum, Executor>();
+    private Ordinals<StateEnum> states;
+
+    // null while no state has a stage
+    private volatile Index index;
+
+    synchronized void put(Executor executor, StateEnum... states) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor is required.");
+        }
+
+        for (StateEnum state : states) {
+            registered.put(state, executor);
+        }
+        index = new Index(this.states, registered);
+    }
+
+    synchronized void bind(TransitionTable table) {
+        states = table.states();
+        if (!registered.isEmpty()) {
+            index = new Index(states, registered);
+        }
+    }
+
+    /**
+     * @return executor of the stage of the state, null if the state has no stage
+     */
+    Executor get(StateEnum state) {
+        Index i = index;
+        if (i == null) {
+            return null;
+        }
+        if (i.states != null) {
+            int s = i.states.indexOf(state);
+            if (s >= 0) {
+                return i.executors[s];
+            }
+        }
+        return i.unindexed.get(state);
+    }
+
+    static void execute(Executor executor, StatefulContext context, Runnable task) {
+        if (executor instanceof ContextExecutor) {
+            ((ContextExecutor) executor).execute(context, task);
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Runs the task on the calling thread, through the mailbox of the context if the executor keeps tasks
+     * of a context serial with one. The task is queued behind tasks of the context already running
+     * and then runs on the thread draining them.
+     *
+     * @throws RejectedExecutionException if the executor runs tasks of a context serially without a mailbox
+     */
+    static void runOnCaller(Executor executor, StatefulContext context, Runnable task) {
+        if (executor instanceof MailboxExecutor || executor instanceof InlineExecutor) {
+            context.getMailbox().execute(task, DIRECT, Integer.MAX_VALUE);
+        } else if (executor instanceof ContextExecutor) {
+            throw new RejectedExecutionException("Tasks of a context can't run on the caller of " + executor);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Immutable snapshot of registered stages, states unknown to the table are kept in a map.
+     */
+    private static final class Index {
+        final Ordinals<StateEnum> states;
+        final Executor[] executors;
+        final Map<StateEnum, Executor> unindexed;
+
+        Index(Ordinals<StateEnum> states, Map<StateEnum, Executor> registered) {
+            this.states = states;
+            this.executors = new Executor[states != null ? states.size() : 0];
+
+            Map<StateEnum, Executor> rest = new HashMap<StateEnum, Executor>();
+            for (Map.Entry<StateEnum, Executor> entry : registered.entrySet()) {
+                int s = states != null ? states.indexOf(entry.getKey()) : -1;
+                if (s >= 0) {
+                    executors[s] = entry.getValue();
+                } else {
+                    rest.put(entry.getKey(), entry.getValue());
+                }
+            }
+            this.unindexed = rest.isEmpty() ? Collections.<StateEnum, Executor>emptyMap() : rest;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package au.com.ds.ef;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * State timeouts and delayed events of a flow.
+ * Timeout of a state is scheduled when the state is entered and cancelled when it is left,
+ * all timeouts of a context are cancelled once it terminates.
+ */
+final class FlowTimeouts {
+
+    private static final class StateTimeout {
+        private final long delay;
+        private final TimeUnit unit;
+        private final EventEnum event;
+
+        StateTimeout(long delay, TimeUnit unit, EventEnum event) {
+            this.delay = delay;
+            this.unit = unit;
+            this.event = event;
+        }
+    }
+
+    /**
+     * Task registered in {@link Pending} before it is scheduled, it only fires while still registered.
+     */
+    private abstract static class Task implements Runnable {
+        volatile FlowTimer.Timeout timeout;
+
+        void cancel() {
+            FlowTimer.Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+        }
+    }
+
+    /**
+     * Timeouts pending for one context.
+     */
+    static final class Pending {
+        private final AtomicReference<Task> stateTimeout = new AtomicReference<Task>();
+        private final Set<Task> delayed = Collections.newSetFromMap(new ConcurrentHashMap<Task, Boolean>());
+
+        void cancelAll() {
+            cancelStateTimeout();
+            for (Task task : delayed) {
+                if (delayed.remove(task)) {
+                    task.cancel();
+                }
+            }
+        }
+
+        private void cancelStateTimeout() {
+            Task task = stateTimeout.getAndSet(null);
+            if (task != null) {
+                task.cancel();
+            }
+        }
+    }
+
+    private volatile Map<StateEnum, StateTimeout> stateTimeouts = Collections.emptyMap();
+    private volatile FlowTimer timer;
+
+    synchronized void put(StateEnum state, long delay, TimeUnit unit, EventEnum event) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Timeout can't be negative.");
+        }
+
+        Map<StateEnum, StateTimeout> copy = new HashMap<StateEnum, StateTimeout>(stateTimeouts);
+        copy.put(state, new StateTimeout(delay, unit, event));
+        stateTimeouts = copy;
+    }
+
+    void setTimer(FlowTimer timer) {
+        this.timer = timer;
+    }
+
+    FlowTimer timer() {
+        FlowTimer t = timer;
+        return t != null ? t : FlowTimer.getDefault();
+    }
+
+    void onEnter(final StateEnum state, final StatefulContext context) {
+        final StateTimeout stateTimeout = stateTimeouts.get(state);
+        if (stateTimeout == null) {
+            return;
+        }
+
+        final Pending pending = context.getPendingTimeouts();
+        Task task = new Task() {
+            @Override
+            public void run() {
+                // fire only if the state was not left in the meantime
+                if (pending.stateTimeout.compareAndSet(this, null)) {
+                    context.tryConditionTrigger(stateTimeout.event, state);
+                }
+            }
+        };
+
+        Task previous = pending.stateTimeout.getAndSet(task);
+        if (previous != null) {
+            previous.cancel();
+        }
+        task.timeout = timer().schedule(task, stateTimeout.delay, stateTimeout.unit);
+
+        if (context.isTerminated()) {
+            pending.cancelAll();
+        }
+    }
+
+    void onLeave(StatefulContext context) {
+        Pending pending = context.getPendingTimeoutsIfAny();
+        if (pending != null) {
+            pending.cancelStateTimeout();
+        }
+    }
+
+    FlowTimer.Timeout triggerAfter(final EventEnum event, final StatefulContext context, long delay, TimeUnit unit) {
+        final Pending pending = context.getPendingTimeouts();
+        Task task = new Task() {
+            @Override
+            public void run() {
+                if (pending.delayed.remove(this)) {
+                    context.tryTrigger(event);
+                }
+            }
+        };
+
+        pending.delayed.add(task);
+        FlowTimer.Timeout timeout = timer().schedule(task, delay, unit);
+        task.timeout = timeout;
+
+        if (context.isTerminated()) {
+            pending.cancelAll();
+        }
+        return timeout;
+    }
+}
@@ -0,0 +1,310 @@
+package au.com.ds.ef;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Hashed wheel timer used for state timeouts and delayed events.
+ * <p>
+ * Timeouts are kept in a wheel of buckets, each bucket covers one tick. Scheduling and cancelling only
+ * enqueue the timeout, the single worker thread moves it into its bucket or out of it on the next tick,
+ * so both are O(1) and millions of pending timeouts cost one object each.
+ * Expiry is accurate to one tick.
+ * <p>
+ * Tasks run on the worker thread and should only hand the work over, e.g. trigger an event.
+ */
+public class FlowTimer {
+    private static final Logger logger = LoggerFactory.getLogger(FlowTimer.class);
+
+    private static final int INIT = 0;
+    private static final int STARTED = 1;
+    private static final int STOPPED = 2;
+
+    private static final AtomicInteger instances = new AtomicInteger();
+    private static volatile FlowTimer defaultTimer;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicInteger status = new AtomicInteger(INIT);
+    private final Thread worker;
+
+    private volatile long startTime;
+    private long tick;
+
+    public FlowTimer() {
+        this(100, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * @param tickDuration - precision of the timer
+     * @param ticksPerWheel - number of buckets, rounded up to power of two
+     */
+    public FlowTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Tick duration has to be positive.");
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("Ticks per wheel has to be between 1 and 2^30.");
+        }
+
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+
+        this.worker = new Thread(new Worker(), "easyflow-timer-" + instances.incrementAndGet());
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Timer shared by flows which were not given their own one.
+     */
+    public static FlowTimer getDefault() {
+        FlowTimer timer = defaultTimer;
+        if (timer == null) {
+            synchronized (FlowTimer.class) {
+                timer = defaultTimer;
+                if (timer == null) {
+                    timer = new FlowTimer();
+                    defaultTimer = timer;
+                }
+            }
+        }
+        return timer;
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        start();
+
+        long deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
+        Timeout timeout = new Timeout(task, deadline);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the worker thread, pending timeouts are never executed.
+     */
+    public void stop() {
+        if (status.getAndSet(STOPPED) == STARTED) {
+            worker.interrupt();
+        }
+    }
+
+    private void start() {
+        switch (status.get()) {
+            case INIT:
+                if (status.compareAndSet(INIT, STARTED)) {
+                    startTime = System.nanoTime();
+                    worker.start();
+                }
+                break;
+            case STARTED:
+                break;
+            default:
+                throw new IllegalStateException("Timer was stopped.");
+        }
+
+        while (startTime == 0) {
+            Thread.yield();
+        }
+    }
+
+    public final class Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        volatile int state = ST_INIT;
+
+        // owned by the worker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false if the timeout already expired or was cancelled
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.warn("Timeout task failed.", t);
+            }
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    /**
+     * Doubly linked list of timeouts, only accessed by the worker thread.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+
+        void expire(long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                    Timeout next = remove(timeout);
+                    timeout.expire();
+                    timeout = next;
+                } else if (timeout.isCancelled()) {
+                    timeout = remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (status.get() == STARTED) {
+                long deadline = waitForNextTick();
+                if (deadline < 0) {
+                    continue;
+                }
+
+                removeCancelled();
+                transferPending();
+                wheel[(int) (tick & mask)].expire(deadline);
+                tick++;
+            }
+
+            pending.clear();
+            cancelled.clear();
+        }
+
+        /**
+         * @return time of the tick relative to start time, or -1 if interrupted
+         */
+        private long waitForNextTick() {
+            long deadline = tickNanos * (tick + 1);
+
+            for (; ; ) {
+                long current = System.nanoTime() - startTime;
+                long sleepMillis = (deadline - current + 999999) / 1000000;
+
+                if (sleepMillis <= 0) {
+                    return current;
+                }
+
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    return -1;
+                }
+            }
+        }
+
+        private void removeCancelled() {
+            for (Timeout timeout = cancelled.poll(); timeout != null; timeout = cancelled.poll()) {
+                Bucket bucket = timeout.bucket;
+                if (bucket != null) {
+                    bucket.remove(timeout);
+                }
+            }
+        }
+
+        private void transferPending() {
+            // limit the work so that a burst of new timeouts does not stall the wheel
+            for (int i = 0; i < 100000; i++) {
+                Timeout timeout = pending.poll();
+                if (timeout == null) {
+                    return;
+                }
+                if (timeout.isCancelled()) {
+                    continue;
+                }
+
+                long calculated = timeout.deadline / tickNanos;
+                timeout.remainingRounds = (calculated - tick) / wheel.length;
+
+                long ticks = Math.max(calculated, tick);
+                wheel[(int) (ticks & mask)].add(timeout);
+            }
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package au.com.ds.ef;
 
+import au.com.ds.ef.call.AsyncContextHandler;
 import au.com.ds.ef.call.ContextHandler;
 import au.com.ds.ef.call.EventHandler;
 import au.com.ds.ef.call.ExecutionErrorHandler;
 import au.com.ds.ef.call.Handler;
 import au.com.ds.ef.call.StateHandler;
 import au.com.ds.ef.err.ExecutionError;
+import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -61,34 +64,268 @@ class HandlerCollection {
         }
     }
 
-    private Map<HandlerType, Handler> handlers = new HashMap<HandlerType, Handler>();
+    /**
+     * Immutable view of registered handlers, resolved to state and event ordinals.
+     * Handlers for keys without an ordinal in the bound transitions are kept in fallback maps.
+     * Replacing a handler copies only the array or map holding it, the rest is shared with the previous snapshot.
+     */
+    private static final class Snapshot {
+        final Ordinals<StateEnum> states;
+        final Ordinals<EventEnum> events;
 
-    public void setHandler(EventType eventType, StateEnum state, EventEnum event, Handler handler) {
-        handlers.put(new HandlerType(eventType, event, state), handler);
+        final Handler[] onEvent;
+        final Handler[] onEnter;
+        final Handler[] onLeave;
+        final Map<EventEnum, Handler> onEventFallback;
+        final Map<StateEnum, Handler> onEnterFallback;
+        final Map<StateEnum, Handler> onLeaveFallback;
+
+        final Handler onAnyEvent;
+        final Handler onAnyEnter;
+        final Handler onAnyLeave;
+        final Handler onFinalState;
+        final Handler onError;
+
+        Snapshot(Ordinals<StateEnum> states, Ordinals<EventEnum> events, Map<HandlerType, Handler> handlers) {
+            this.states = states;
+            this.events = events;
+
+            Handler[] onEvent = new Handler[events.size()];
+            Handler[] onEnter = new Handler[states.size()];
+            Handler[] onLeave = new Handler[states.size()];
+            Map<EventEnum, Handler> onEventFallback = new HashMap<EventEnum, Handler>();
+            Map<StateEnum, Handler> onEnterFallback = new HashMap<StateEnum, Handler>();
+            Map<StateEnum, Handler> onLeaveFallback = new HashMap<StateEnum, Handler>();
+            Handler onAnyEvent = null;
+            Handler onAnyEnter = null;
+            Handler onAnyLeave = null;
+            Handler onFinalState = null;
+            Handler onError = null;
+
+            for (Map.Entry<HandlerType, Handler> entry : handlers.entrySet()) {
+                HandlerType type = entry.getKey();
+                Handler h = entry.getValue();
+                switch (type.eventType) {
+                    case EVENT_TRIGGER:
+                        put(onEvent, onEventFallback, events.indexOf(type.event), type.event, h);
+                        break;
+                    case STATE_ENTER:
+                        put(onEnter, onEnterFallback, states.indexOf(type.state), type.state, h);
+                        break;
+                    case STATE_LEAVE:
+                        put(onLeave, onLeaveFallback, states.indexOf(type.state), type.state, h);
+                        break;
+                    case ANY_EVENT_TRIGGER:
+                        onAnyEvent = h;
+                        break;
+                    case ANY_STATE_ENTER:
+                        onAnyEnter = h;
+                        break;
+                    case ANY_STATE_LEAVE:
+                        onAnyLeave = h;
+                        break;
+                    case FINAL_STATE:
+                        onFinalState = h;
+                        break;
+                    case ERROR:
+                        onError = h;
+                        break;
+                }
+            }
+
+            this.onEvent = onEvent;
+            this.onEnter = onEnter;
+            this.onLeave = onLeave;
+            this.onEventFallback = compact(onEventFallback);
+            this.onEnterFallback = compact(onEnterFallback);
+            this.onLeaveFallback = compact(onLeaveFallback);
+            this.onAnyEvent = onAnyEvent;
+            this.onAnyEnter = onAnyEnter;
+            this.onAnyLeave = onAnyLeave;
+            this.onFinalState = onFinalState;
+            this.onError = onError;
+        }
+
+        private Snapshot(Snapshot s, Handler[] onEvent, Handler[] onEnter, Handler[] onLeave,
+                         Map<EventEnum, Handler> onEventFallback, Map<StateEnum, Handler> onEnterFallback,
+                         Map<StateEnum, Handler> onLeaveFallback, Handler onAnyEvent, Handler onAnyEnter,
+                         Handler onAnyLeave, Handler onFinalState, Handler onError) {
+            this.states = s.states;
+            this.events = s.events;
+            this.onEvent = onEvent;
+            this.onEnter = onEnter;
+            this.onLeave = onLeave;
+            this.onEventFallback = onEventFallback;
+            this.onEnterFallback = onEnterFallback;
+            this.onLeaveFallback = onLeaveFallback;
+            this.onAnyEvent = onAnyEvent;
+            this.onAnyEnter = onAnyEnter;
+            this.onAnyLeave = onAnyLeave;
+            this.onFinalState = onFinalState;
+            this.onError = onError;
+        }
+
+        /**
+         * @return copy of this snapshot with the handler replaced
+         */
+        Snapshot with(HandlerType type, Handler h) {
+            Handler[] onEvent = this.onEvent;
+            Handler[] onEnter = this.onEnter;
+            Handler[] onLeave = this.onLeave;
+            Map<EventEnum, Handler> onEventFallback = this.onEventFallback;
+            Map<StateEnum, Handler> onEnterFallback = this.onEnterFallback;
+            Map<StateEnum, Handler> onLeaveFallback = this.onLeaveFallback;
+            Handler onAnyEvent = this.onAnyEvent;
+            Handler onAnyEnter = this.onAnyEnter;
+            Handler onAnyLeave = this.onAnyLeave;
+            Handler onFinalState = this.onFinalState;
+            Handler onError = this.onError;
+
+            switch (type.eventType) {
+                case EVENT_TRIGGER:
+                    int e = events.indexOf(type.event);
+                    if (e >= 0) {
+                        onEvent = replace(onEvent, e, h);
+                    } else {
+                        onEventFallback = replace(onEventFallback, type.event, h);
+                    }
+                    break;
+                case STATE_ENTER:
+                    int enter = states.indexOf(type.state);
+                    if (enter >= 0) {
+                        onEnter = replace(onEnter, enter, h);
+                    } else {
+                        onEnterFallback = replace(onEnterFallback, type.state, h);
+                    }
+                    break;
+                case STATE_LEAVE:
+                    int leave = states.indexOf(type.state);
+                    if (leave >= 0) {
+                        onLeave = replace(onLeave, leave, h);
+                    } else {
+                        onLeaveFallback = replace(onLeaveFallback, type.state, h);
+                    }
+                    break;
+                case ANY_EVENT_TRIGGER:
+                    onAnyEvent = h;
+                    break;
+                case ANY_STATE_ENTER:
+                    onAnyEnter = h;
+                    break;
+                case ANY_STATE_LEAVE:
+                    onAnyLeave = h;
+                    break;
+                case FINAL_STATE:
+                    onFinalState = h;
+                    break;
+                case ERROR:
+                    onError = h;
+                    break;
+            }
+
+            return new Snapshot(this, onEvent, onEnter, onLeave, onEventFallback, onEnterFallback, onLeaveFallback,
+                    onAnyEvent, onAnyEnter, onAnyLeave, onFinalState, onError);
+        }
+
+        private static Handler[] replace(Handler[] indexed, int index, Handler h) {
+            Handler[] copy = indexed.clone();
+            copy[index] = h;
+            return copy;
+        }
+
+        private static <K> Map<K, Handler> replace(Map<K, Handler> fallback, K key, Handler h) {
+            Map<K, Handler> copy = new HashMap<K, Handler>(fallback);
+            copy.put(key, h);
+            return copy;
+        }
+
+        private static <K> void put(Handler[] indexed, Map<K, Handler> fallback, int index, K key, Handler h) {
+            if (index >= 0) {
+                indexed[index] = h;
+            } else {
+                fallback.put(key, h);
+            }
+        }
+
+        private static <K> Map<K, Handler> compact(Map<K, Handler> map) {
+            return map.isEmpty() ? Collections.<K, Handler>emptyMap() : map;
+        }
+
+        Handler onEvent(EventEnum event) {
+            int index = events.indexOf(event);
+            return index >= 0 ? onEvent[index] : onEventFallback.get(event);
+        }
+
+        Handler onEnter(StateEnum state) {
+            int index = states.indexOf(state);
+            return index >= 0 ? onEnter[index] : onEnterFallback.get(state);
+        }
+
+        Handler onLeave(StateEnum state) {
+            int index = states.indexOf(state);
+            return index >= 0 ? onLeave[index] : onLeaveFallback.get(state);
+        }
     }
 
-    public <C extends StatefulContext> void callOnEventTriggered(EventEnum event, StateEnum stateFrom, StateEnum stateTo, C context) throws Exception {
-        Handler h = handlers.get(new HandlerType(EventType.EVENT_TRIGGER, event, null));
-        if (h != null) {
+    // registered handlers, source of the snapshot when bound to other transitions; guarded by this
+    private final Map<HandlerType, Handler> handlers = new HashMap<HandlerType, Handler>();
+    private volatile Snapshot snapshot = new Snapshot(
+            Ordinals.of(Collections.<StateEnum>emptyList()), Ordinals.of(Collections.<EventEnum>emptyList()), handlers);
+
+    /**
+     * Registers or replaces the handler, {@code null} removes it. Safe while contexts are running:
+     * the new handler is published with a single volatile write and each call reads the handlers once,
+     * calls in progress finish with the handlers they started with.
+     */
+    public synchronized void setHandler(EventType eventType, StateEnum state, EventEnum event, Handler handler) {
+        HandlerType type = new HandlerType(eventType, event, state);
+        if (handler != null) {
+            handlers.put(type, handler);
+        } else {
+            handlers.remove(type);
+        }
+        snapshot = snapshot.with(type, handler);
+    }
+
+    /**
+     * Resolves registered handlers against ordinals of given transitions.
+     */
+    public synchronized void bind(TransitionTable table) {
+        snapshot = new Snapshot(table.states(), table.events(), handlers);
+    }
+
+    /**
+     * @return future of the {@link AsyncContextHandler} registered for the event, null if the handler is synchronous
+     */
+    public <C extends StatefulContext> ListenableFuture<?> callOnEventTriggered(EventEnum event, StateEnum stateFrom, StateEnum stateTo, C context) throws Exception {
+        Snapshot s = snapshot;
+        ListenableFuture<?> pending = null;
+        Handler h = s.onEvent(event);
+        if (h instanceof AsyncContextHandler) {
+            AsyncContextHandler<C> asyncHandler = (AsyncContextHandler<C>) h;
+            pending = asyncHandler.call(context);
+        } else if (h != null) {
             ContextHandler<C> contextHandler = (ContextHandler<C>) h;
             contextHandler.call(context);
         }
 
-        h = handlers.get(new HandlerType(EventType.ANY_EVENT_TRIGGER, null, null));
+        h = s.onAnyEvent;
         if (h != null) {
             EventHandler<C> eventHandler = (EventHandler<C>) h;
             eventHandler.call(event, stateFrom, stateTo, context);
         }
+        return pending;
     }
 
     public <C extends StatefulContext> void callOnStateEntered(StateEnum state, C context) throws Exception {
-        Handler h = handlers.get(new HandlerType(EventType.STATE_ENTER, null, state));
+        Snapshot s = snapshot;
+        Handler h = s.onEnter(state);
         if (h != null) {
             ContextHandler<C> contextHandler = (ContextHandler<C>) h;
             contextHandler.call(context);
         }
 
-        h = handlers.get(new HandlerType(EventType.ANY_STATE_ENTER, null, null));
+        h = s.onAnyEnter;
         if (h != null) {
             StateHandler<C> stateHandler = (StateHandler<C>) h;
             stateHandler.call(state, context);
@@ -96,13 +333,14 @@ class HandlerCollection {
     }
 
     public <C extends StatefulContext> void callOnStateLeaved(StateEnum state, C context) throws Exception {
-        Handler h = handlers.get(new HandlerType(EventType.STATE_LEAVE, null, state));
+        Snapshot s = snapshot;
+        Handler h = s.onLeave(state);
         if (h != null) {
             ContextHandler<C> contextHandler = (ContextHandler<C>) h;
             contextHandler.call(context);
         }
 
-        h = handlers.get(new HandlerType(EventType.ANY_STATE_LEAVE, null, null));
+        h = s.onAnyLeave;
         if (h != null) {
             StateHandler<C> stateHandler = (StateHandler<C>) h;
             stateHandler.call(state, context);
@@ -110,7 +348,7 @@ class HandlerCollection {
     }
 
     public <C extends StatefulContext> void callOnFinalState(StateEnum state, C context) throws Exception {
-        Handler h = handlers.get(new HandlerType(EventType.FINAL_STATE, null, null));
+        Handler h = snapshot.onFinalState;
         if (h != null) {
             StateHandler<C> contextHandler = (StateHandler<C>) h;
             contextHandler.call(state, context);
@@ -118,7 +356,7 @@ class HandlerCollection {
     }
 
     public void callOnError(ExecutionError error) {
-        Handler h = handlers.get(new HandlerType(EventType.ERROR, null, null));
+        Handler h = snapshot.onError;
         if (h != null) {
             ExecutionErrorHandler errorHandler = (ExecutionErrorHandler) h;
             errorHandler.call(error, error.getContext());
@@ -1,12 +1,13 @@
 package au.com.ds.ef;
 
 import com.google.common.base.Function;
-import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Lists;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 /**
  * Constructed sub-flow, can't be reused - uniqueness of state has to be preserved.
@@ -97,77 +98,66 @@ public class IncompleteTransition extends RegularTransition {
         }
 
         /**
-         * From all transactions created by 'emit' function (TE) in thread local repository,
+         * From all transactions created by 'emit' function (TE) in the repository,
          * match with sub transitions (ST) by event type.
          * Update ST state-from field.
          * Remove matched TE.
          * <p>
-         * Update with From value only not overridden default transitions
+         * Default transitions of the sub-flow are registered as fallback of its start state by {@link #transit}.
          */
         @Override
         public Transition transit(final Transition... transitions) {
-
-            Repository.get().removeAll(
-                    FluentIterable.from(Repository.get())
-                            .filter(new Predicate<Transition>() {
-                                @Override
-                                public boolean apply(Transition t) {
-                                    return t.getStateTo() == null && updateOuterTransaction(t, transitions);
-                                }
-                            }).toList()
-            );
-
-            if (target.defaultTransitions != null) {
-
-                final Set<EventEnum> targetsEvents = FluentIterable.from(Repository.get())
-                        .filter(new Predicate<Transition>() {
-                            @Override
-                            public boolean apply(Transition t) {
-                                return t.getStateFrom() == target.getStateTo();
-                            }
-                        }).transform(new Function<Transition, EventEnum>() {
-                            @Override
-                            public EventEnum apply(Transition t) {
-                                return t.getEvent();
-                            }
-                        }).toSet();
-
-                FluentIterable<Transition> filtered = FluentIterable.from(target.defaultTransitions)
-                        .filter(new Predicate<Transition>() {
-                            @Override
-                            public boolean apply(Transition dt) {
-                                return !targetsEvents.contains(dt.getEvent());
-                            }
-                        });
-                for (Transition t : filtered) {
-                    t.propagateStateFrom(target.getStateTo());
+            Repository repository = target.repository;
+
+            if (!repository.emitted().isEmpty()) {
+                Map<EventEnum, List<Transition>> unconnected = unconnected(transitions);
+                for (Transition emitted : new ArrayList<Transition>(repository.emitted())) {
+                    if (updateOuterTransaction(emitted, unconnected)) {
+                        repository.remove(emitted);
+                    }
                 }
             }
 
             return target;
         }
 
-        private boolean updateOuterTransaction(final Transition innerT, Transition[] transitions) {
-            return !FluentIterable.of(transitions)
-                    .transformAndConcat(new Function<Transition, Iterable<Transition>>() {
-                        @Override
-                        public Iterable<Transition> apply(Transition t) {
-                            List<Transition> list = Lists.newArrayList(t);
-                            list.addAll(t.getDerivedTransitions());
-                            return list;
-                        }
-                    }).filter(new Predicate<Transition>() {
-                        @Override
-                        public boolean apply(Transition t) {
-                            return t.getStateFrom() == null && t.getEvent() == innerT.getEvent();
-                        }
-                    }).transform(new Function<Transition, Boolean>() {
-                        @Override
-                        public Boolean apply(Transition t) {
-                            t.setStateFrom(innerT.getStateFrom());
-                            return true;
-                        }
-                    }).toList().isEmpty();
+        /**
+         * Sub transitions, including derived ones, by event.
+         */
+        private static Map<EventEnum, List<Transition>> unconnected(Transition[] transitions) {
+            Map<EventEnum, List<Transition>> result = new HashMap<EventEnum, List<Transition>>();
+            for (Transition t : transitions) {
+                add(result, t);
+                for (Transition derived : t.getDerivedTransitions()) {
+                    add(result, derived);
+                }
+            }
+            return result;
+        }
+
+        private static void add(Map<EventEnum, List<Transition>> map, Transition t) {
+            List<Transition> list = map.get(t.getEvent());
+            if (list == null) {
+                list = new ArrayList<Transition>();
+                map.put(t.getEvent(), list);
+            }
+            list.add(t);
+        }
+
+        private boolean updateOuterTransaction(Transition innerT, Map<EventEnum, List<Transition>> unconnected) {
+            List<Transition> candidates = unconnected.get(innerT.getEvent());
+            if (candidates == null) {
+                return false;
+            }
+
+            boolean updated = false;
+            for (Transition t : candidates) {
+                if (t.getStateFrom() == null) {
+                    t.setStateFrom(innerT.getStateFrom());
+                    updated = true;
+                }
+            }
+            return updated;
         }
     }
 
@@ -175,6 +165,10 @@ public class IncompleteTransition extends RegularTransition {
         super(event, stateTo, false, defaultTransitions);
     }
 
+    IncompleteTransition(StateEnum stateTo, List<Transition> defaultTransitions, Repository repository) {
+        super(null, stateTo, false, defaultTransitions, repository);
+    }
+
     public static IncompleteTransition from(StateEnum startState) {
         return from(startState, null);
     }
@@ -192,7 +186,7 @@ public class IncompleteTransition extends RegularTransition {
                     .transform(new Function<EventEnum, Transition>() {
                         @Override
                         public Transition apply(EventEnum e) {
-                            return new RegularTransition(e, getStateTo(), isFinal());
+                            return new RegularTransition(e, getStateTo(), isFinal(), repository);
                         }
                     }).toList();
         }
@@ -0,0 +1,53 @@
+package au.com.ds.ef;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs flow tasks on the calling thread, without any executor hand-off.
+ * <p>
+ * Tasks submitted while a task of the same context is running (e.g. triggers fired from handlers)
+ * are queued and executed in FIFO order once the running one returns, so the stack does not grow
+ * with the number of transitions. Contexts can be driven from many threads at once: a thread
+ * triggering a context which is already running on another thread only queues the task, which is
+ * then executed by that other thread.
+ * <p>
+ * Single instance can be shared by any number of flows.
+ */
+public class InlineExecutor implements ContextExecutor {
+    private static final Executor DIRECT = MoreExecutors.directExecutor();
+
+    private final ThreadLocal<Deque<Runnable>> pending = new ThreadLocal<Deque<Runnable>>();
+
+    @Override
+    public void execute(StatefulContext context, Runnable task) {
+        context.getMailbox().execute(task, DIRECT, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Tasks without a context are trampolined per calling thread.
+     */
+    @Override
+    public void execute(Runnable task) {
+        Deque<Runnable> queue = pending.get();
+        if (queue != null) {
+            queue.addLast(task);
+            return;
+        }
+
+        queue = new ArrayDeque<Runnable>();
+        pending.set(queue);
+        try {
+            Runnable next = task;
+            while (next != null) {
+                next.run();
+                next = queue.pollFirst();
+            }
+        } finally {
+            pending.remove();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package au.com.ds.ef;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with fixed power of two buckets: bucket {@code b} counts durations
+ * between {@code 2^(b-1)} and {@code 2^b - 1} nanoseconds, bucket 0 counts zero durations.
+ * Recording is two atomic increments and never allocates, buckets are striped by thread
+ * like the counters of {@link FlowMetrics}, so threads recording at once don't contend.
+ */
+public final class LatencyHistogram {
+    static final int BUCKETS = 64;
+    private static final int SUM = BUCKETS;
+    // buckets and sum of a stripe, padded by a cache line from the next stripe
+    private static final int STRIDE = BUCKETS + 1 + (1 << FlowMetrics.PAD);
+
+    // per stripe buckets followed by the sum of all recorded durations
+    private final AtomicLongArray counts = new AtomicLongArray(FlowMetrics.STRIPES * STRIDE);
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int offset = FlowMetrics.stripe() * STRIDE;
+        counts.incrementAndGet(offset + bucket(nanos));
+        counts.addAndGet(offset + SUM, nanos);
+    }
+
+    static int bucket(long nanos) {
+        return 64 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long sum = 0;
+        for (int stripe = 0; stripe < FlowMetrics.STRIPES; stripe++) {
+            int offset = stripe * STRIDE;
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] += counts.get(offset + i);
+            }
+            sum += counts.get(offset + SUM);
+        }
+        return new Snapshot(buckets, sum);
+    }
+
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0);
+
+        private final long[] buckets;
+        private final long count;
+        private final long totalNanos;
+
+        Snapshot(long[] buckets, long totalNanos) {
+            long c = 0;
+            for (long b : buckets) {
+                c += b;
+            }
+            this.buckets = buckets;
+            this.count = c;
+            this.totalNanos = totalNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * @return upper bound of the bucket containing given quantile, e.g. 0.99
+         */
+        public long getPercentileNanos(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += buckets[b];
+                if (seen >= rank && seen > 0) {
+                    return upperBound(b);
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * @return count of durations in bucket {@code b}, see {@link LatencyHistogram}
+         */
+        public long getBucketCount(int b) {
+            return buckets[b];
+        }
+
+        private static long upperBound(int bucket) {
+            return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", mean=" + (long) getMeanNanos() + "ns, p50=" + getPercentileNanos(0.5)
+                    + "ns, p99=" + getPercentileNanos(0.99) + "ns";
+        }
+    }
+}
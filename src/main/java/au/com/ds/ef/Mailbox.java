@@ -0,0 +1,172 @@
+package au.com.ds.ef;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * FIFO queue of tasks of a single context, executed one at a time.
+ * The queue is drained by one task submitted to an executor, which processes at most
+ * <code>throughput</code> tasks before giving the thread back to other mailboxes.
+ * Each task keeps the executor it was submitted to, when the next task belongs to another executor
+ * (a stage of the flow) the mailbox is handed off to it, so tasks of the context stay in order across stages.
+ * A failing task doesn't stop tasks queued after it, its exception is thrown once the mailbox is released.
+ */
+final class Mailbox implements Runnable {
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+
+    private static final AtomicIntegerFieldUpdater<Mailbox> STATUS =
+            AtomicIntegerFieldUpdater.newUpdater(Mailbox.class, "status");
+
+    private final Queue<Entry> tasks = new ConcurrentLinkedQueue<Entry>();
+    private volatile int status = IDLE;
+    // incremented by each run, only the thread owning the scheduled mailbox writes it
+    private volatile int runs;
+
+    // written by the thread which scheduled the mailbox, published by executor hand-off
+    private Executor executor;
+    private int throughput;
+
+    /**
+     * @throws RejectedExecutionException thrown by the executor, the task is then removed and never runs
+     */
+    void execute(Runnable task, Executor executor, int throughput) {
+        Entry entry = new Entry(task, executor, throughput);
+        tasks.offer(entry);
+        if (STATUS.compareAndSet(this, IDLE, SCHEDULED)) {
+            this.executor = executor;
+            this.throughput = throughput;
+            int started = runs;
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // a direct executor runs the mailbox before the exception of a task gets here, it's released already
+                if (runs == started) {
+                    // removed before the mailbox can be scheduled by another task, so it can't run later
+                    tasks.remove(entry);
+                    status = IDLE;
+                    resume();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Schedules tasks left in the queue on the executor of the first one.
+     * If the executor rejects the mailbox they wait for the next task.
+     */
+    private void resume() {
+        Entry next = tasks.peek();
+        if (next != null && STATUS.compareAndSet(this, IDLE, SCHEDULED) && !submit(next.executor, next.throughput)) {
+            status = IDLE;
+        }
+    }
+
+    /**
+     * Submits the scheduled mailbox to the executor.
+     *
+     * @return false if the executor rejected the mailbox
+     * @throws RejectedExecutionException thrown by a task the executor ran directly
+     */
+    private boolean submit(Executor executor, int throughput) {
+        this.executor = executor;
+        this.throughput = throughput;
+        int started = runs;
+        try {
+            executor.execute(this);
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (runs != started) {
+                throw e;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @throws RuntimeException first failure of a task, thrown once the mailbox is released
+     */
+    @Override
+    public void run() {
+        RuntimeException failure = drain();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Runs queued tasks until the mailbox is released or handed over, a failed task doesn't stop the others.
+     *
+     * @return first failure of a task, null if all tasks completed
+     */
+    private RuntimeException drain() {
+        runs++;
+        RuntimeException failure = null;
+        Executor executor = this.executor;
+        int throughput = this.throughput;
+        // set while the mailbox is handed over, a submit which throws has released the mailbox already
+        boolean completed = false;
+        try {
+            for (; ; ) {
+                int processed = 0;
+                Entry entry;
+                while (processed < throughput && (entry = tasks.peek()) != null) {
+                    // moves to the executor of the next task, rejected hand-off runs the task here
+                    if (entry.executor != executor) {
+                        completed = true;
+                        if (submit(entry.executor, entry.throughput)) {
+                            return failure;
+                        }
+                        completed = false;
+                    }
+                    tasks.poll();
+                    processed++;
+                    try {
+                        entry.task.run();
+                    } catch (RuntimeException e) {
+                        if (failure == null) {
+                            failure = e;
+                        }
+                    }
+                }
+
+                if (processed == throughput && !tasks.isEmpty()) {
+                    completed = true;
+                    if (submit(executor, throughput)) {
+                        return failure;
+                    }
+                    // queued tasks were accepted already, keep running them on this thread
+                    completed = false;
+                    continue;
+                }
+
+                status = IDLE;
+                if (tasks.isEmpty() || !STATUS.compareAndSet(this, IDLE, SCHEDULED)) {
+                    completed = true;
+                    return failure;
+                }
+            }
+        } finally {
+            if (!completed) {
+                status = IDLE;
+                resume();
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Runnable task;
+        final Executor executor;
+        final int throughput;
+
+        Entry(Runnable task, Executor executor, int throughput) {
+            this.task = task;
+            this.executor = executor;
+            this.throughput = throughput;
+        }
+    }
+}
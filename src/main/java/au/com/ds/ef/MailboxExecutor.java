@@ -0,0 +1,51 @@
+package au.com.ds.ef;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks of each context one at a time and in submission order (a per-context mailbox),
+ * while tasks of different contexts run in parallel on a shared pool.
+ * <p>
+ * Single flow definition can then use all pool threads without breaking the single-writer
+ * assumption of its handlers:
+ * <pre>
+ * flow.executor(new MailboxExecutor(Executors.newFixedThreadPool(threads)));
+ * </pre>
+ * Tasks submitted without a context are passed to the pool directly.
+ * Stages of a flow with their own mailbox executors share the mailbox of a context, which is handed off
+ * between their pools, so each task runs on the pool it was submitted to and still in order.
+ */
+public class MailboxExecutor implements ContextExecutor {
+    public static final int DEFAULT_THROUGHPUT = 16;
+
+    private final Executor pool;
+    private final int throughput;
+
+    public MailboxExecutor(Executor pool) {
+        this(pool, DEFAULT_THROUGHPUT);
+    }
+
+    /**
+     * @param throughput - max number of tasks of one context executed before its thread is released
+     */
+    public MailboxExecutor(Executor pool, int throughput) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool is required.");
+        }
+        if (throughput < 1) {
+            throw new IllegalArgumentException("Throughput has to be positive.");
+        }
+        this.pool = pool;
+        this.throughput = throughput;
+    }
+
+    @Override
+    public void execute(StatefulContext context, Runnable task) {
+        context.getMailbox().execute(task, pool, throughput);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        pool.execute(task);
+    }
+}
@@ -0,0 +1,105 @@
+package au.com.ds.ef;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps states or events to dense ordinals.
+ * Plain Java enums use {@link Enum#ordinal()}, any other implementation gets an ordinal
+ * assigned in registration order.
+ */
+abstract class Ordinals<T> {
+
+    /**
+     * @return ordinal of given key or -1 when key is not known
+     */
+    abstract int indexOf(T key);
+
+    abstract T valueOf(int index);
+
+    abstract int size();
+
+    static <T> Ordinals<T> of(Collection<? extends T> keys) {
+        Class<?> enumType = null;
+        for (T key : keys) {
+            if (key == null) {
+                continue;
+            }
+            if (!(key instanceof Enum)) {
+                return new Registry<T>(keys);
+            }
+            Class<?> type = ((Enum<?>) key).getDeclaringClass();
+            if (enumType == null) {
+                enumType = type;
+            } else if (enumType != type) {
+                return new Registry<T>(keys);
+            }
+        }
+        return enumType == null ? new Registry<T>(keys) : new ForEnum<T>(enumType);
+    }
+
+    private static final class ForEnum<T> extends Ordinals<T> {
+        private final Class<?> type;
+        private final Object[] constants;
+
+        private ForEnum(Class<?> type) {
+            this.type = type;
+            this.constants = type.getEnumConstants();
+        }
+
+        @Override
+        int indexOf(T key) {
+            if (key instanceof Enum) {
+                Enum<?> e = (Enum<?>) key;
+                if (e.getDeclaringClass() == type) {
+                    return e.ordinal();
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        T valueOf(int index) {
+            return (T) constants[index];
+        }
+
+        @Override
+        int size() {
+            return constants.length;
+        }
+    }
+
+    private static final class Registry<T> extends Ordinals<T> {
+        private final Map<T, Integer> ordinals = new HashMap<T, Integer>();
+        private final List<T> values = new ArrayList<T>();
+
+        private Registry(Collection<? extends T> keys) {
+            for (T key : keys) {
+                if (key != null && !ordinals.containsKey(key)) {
+                    ordinals.put(key, values.size());
+                    values.add(key);
+                }
+            }
+        }
+
+        @Override
+        int indexOf(T key) {
+            Integer index = key == null ? null : ordinals.get(key);
+            return index == null ? -1 : index;
+        }
+
+        @Override
+        T valueOf(int index) {
+            return values.get(index);
+        }
+
+        @Override
+        int size() {
+            return values.size();
+        }
+    }
+}
@@ -12,6 +12,7 @@ public class RegularTransition extends Transition {
     private StateEnum stateFrom;
     private StateEnum stateTo;
     private boolean isFinal;
+    final Repository repository;
     protected List<Transition> defaultTransitions = null;
     protected List<Transition> derivedTransitions = new LinkedList<Transition>();
 
@@ -20,23 +21,33 @@ public class RegularTransition extends Transition {
         return new RegularTransition(events, stateTo, isFinal, dt);
     }
 
+    static RegularTransition spanTransitionTree(
+            List<EventEnum> events, StateEnum stateTo, boolean isFinal, List<Transition> dt, Repository repository) {
+        return new RegularTransition(events, stateTo, isFinal, dt, repository);
+    }
+
     static RegularTransition createSingleTransition(EventEnum event, StateEnum stateTo, boolean isFinal) {
         return new RegularTransition(event, stateTo, isFinal);
     }
 
+    static RegularTransition createSingleTransition(
+            EventEnum event, StateEnum stateTo, boolean isFinal, Repository repository) {
+        return new RegularTransition(event, stateTo, isFinal, repository);
+    }
+
     protected RegularTransition(List<EventEnum> events, final StateEnum stateTo, final boolean isFinal, List<Transition> dt) {
+        this(events, stateTo, isFinal, dt, Repository.current());
+    }
+
+    RegularTransition(List<EventEnum> events, final StateEnum stateTo, final boolean isFinal, List<Transition> dt,
+                      final Repository repository) {
+        this.repository = repository;
         this.event = events != null ? events.remove(0) : null;
         this.stateTo = stateTo;
         this.isFinal = isFinal;
 
         if (dt != null && !dt.isEmpty()) {
-            this.defaultTransitions = FluentIterable.from(dt)
-                    .transform(new Function<Transition, Transition>() {
-                        @Override
-                        public Transition apply(Transition t) {
-                            return new RegularTransition(t.getEvent(), t.getStateTo(), t.isFinal());
-                        }
-                    }).toList();
+            this.defaultTransitions = dt;
         }
 
         if (events != null && !events.isEmpty()) {
@@ -44,27 +55,37 @@ public class RegularTransition extends Transition {
                     .transform(new Function<EventEnum, Transition>() {
                         @Override
                         public Transition apply(EventEnum e) {
-                            return new RegularTransition(e, stateTo, isFinal);
+                            return new RegularTransition(e, stateTo, isFinal, repository);
                         }
                     })
                     .toList();
         }
 
-        Repository.get().add(this);
+        repository.add(this);
     }
 
     protected RegularTransition(EventEnum event, StateEnum stateTo, boolean isFinal) {
+        this(event, stateTo, isFinal, Repository.current());
+    }
+
+    RegularTransition(EventEnum event, StateEnum stateTo, boolean isFinal, Repository repository) {
+        this.repository = repository;
         this.event = event;
         this.stateTo = stateTo;
         this.isFinal = isFinal;
-        Repository.get().add(this);
+        repository.add(this);
     }
 
+    /**
+     * Default transitions are not copied, the target state falls back to them for events without own transitions.
+     */
     public Transition transit(Transition... transitions) {
-        List<Transition> list = TransitionUtil.composeTransitions(defaultTransitions, transitions);
-        for (Transition t : list) {
+        for (Transition t : transitions) {
             t.propagateStateFrom(stateTo);
         }
+        if (defaultTransitions != null) {
+            repository.fallback(stateTo, defaultTransitions);
+        }
         return this;
     }
 
@@ -73,7 +94,7 @@ public class RegularTransition extends Transition {
     }
 
     public void propagateStateFrom(final StateEnum stateFrom) {
-        this.stateFrom = stateFrom;
+        setStateFrom(stateFrom);
         for (Transition dt : derivedTransitions) {
             dt.propagateStateFrom(stateFrom);
         }
@@ -0,0 +1,208 @@
+package au.com.ds.ef;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs tasks on a fixed number of single-threaded event loops, each context always on the same loop,
+ * picked by the hash of its id:
+ * <pre>
+ * flow.executor(new ShardedExecutor(Runtime.getRuntime().availableProcessors()));
+ * </pre>
+ * Tasks of a context run one at a time and in submission order, with its state and data staying in the cache
+ * of one core. Each loop has its own lock-free multi-producer single-consumer queue, so producers only contend
+ * with producers of the same loop and loops never contend with each other.
+ * <p>
+ * Tasks submitted without a context are spread over the loops round robin.
+ * A context with long running handlers delays all contexts of its loop, such handlers should hand the work over.
+ */
+public class ShardedExecutor implements ContextExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedExecutor.class);
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final Loop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param loops - number of event loop threads
+     */
+    public ShardedExecutor(int loops) {
+        if (loops < 1) {
+            throw new IllegalArgumentException("Number of loops has to be positive.");
+        }
+
+        int instance = instances.incrementAndGet();
+        this.loops = new Loop[loops];
+        for (int i = 0; i < loops; i++) {
+            this.loops[i] = new Loop("easyflow-loop-" + instance + "-" + i);
+        }
+        for (Loop loop : this.loops) {
+            loop.thread.start();
+        }
+    }
+
+    @Override
+    public void execute(StatefulContext context, Runnable task) {
+        loop(context.getIdNumber()).offer(task);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length].offer(task);
+    }
+
+    private Loop loop(long id) {
+        // spreads sequential ids and keeps the index non-negative
+        long h = id * 0x9E3779B97F4A7C15L;
+        return loops[(int) ((h >>> 33) % loops.length)];
+    }
+
+    /**
+     * Loops run tasks already submitted and stop, new tasks are rejected.
+     */
+    public void shutdown() {
+        for (Loop loop : loops) {
+            loop.shutdown = true;
+            LockSupport.unpark(loop.thread);
+        }
+    }
+
+    public boolean isShutdown() {
+        return loops[0].shutdown;
+    }
+
+    /**
+     * @return true if all loops stopped within the timeout
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Loop loop : loops) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining > 0) {
+                loop.thread.join(remaining);
+            }
+            if (loop.thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Node {
+        Runnable task;
+        volatile Node next;
+
+        Node(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    /**
+     * Event loop draining an MPSC linked queue: producers swap the tail and link the previous node,
+     * the loop thread alone moves the head and drains all linked tasks in one pass. Before parking the loop announces it in {@code sleeping}
+     * and checks the queue once more, producers check {@code sleeping} after linking their node.
+     * Producers count themselves in {@code offering} while they check for shutdown and link,
+     * so the loop stops only once no task can be linked anymore.
+     */
+    private static final class Loop implements Runnable {
+        private static final AtomicReferenceFieldUpdater<Loop, Node> TAIL =
+                AtomicReferenceFieldUpdater.newUpdater(Loop.class, Node.class, "tail");
+        private static final AtomicIntegerFieldUpdater<Loop> SLEEPING =
+                AtomicIntegerFieldUpdater.newUpdater(Loop.class, "sleeping");
+        private static final AtomicIntegerFieldUpdater<Loop> OFFERING =
+                AtomicIntegerFieldUpdater.newUpdater(Loop.class, "offering");
+        private static final int SPINS = 64;
+
+        private final Thread thread;
+
+        // owned by the loop thread
+        private Node head;
+
+        volatile Node tail;
+        volatile int sleeping;
+        volatile int offering;
+        volatile boolean shutdown;
+
+        Loop(String name) {
+            this.head = new Node(null);
+            this.tail = head;
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        void offer(Runnable task) {
+            Node node = new Node(task);
+            OFFERING.incrementAndGet(this);
+            try {
+                if (shutdown) {
+                    throw new RejectedExecutionException("Executor was shut down.");
+                }
+                Node previous = TAIL.getAndSet(this, node);
+                previous.next = node;
+            } finally {
+                OFFERING.decrementAndGet(this);
+            }
+
+            if (sleeping == 1 && SLEEPING.compareAndSet(this, 1, 0)) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private boolean isEmpty() {
+            return head == tail;
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            for (; ; ) {
+                int processed = 0;
+                Node n;
+                while ((n = head.next) != null) {
+                    Runnable task = n.task;
+                    n.task = null;
+                    head = n;
+                    processed++;
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        logger.error("Task failed on " + thread.getName(), e);
+                    }
+                }
+
+                if (processed > 0) {
+                    idle = 0;
+                    continue;
+                }
+                if (!isEmpty() || ++idle < SPINS) {
+                    // a producer may have swapped the tail but not linked its node yet,
+                    // or may submit shortly - parking and waking up costs more than a few yields
+                    Thread.yield();
+                    continue;
+                }
+                if (shutdown) {
+                    if (offering == 0 && isEmpty()) {
+                        return;
+                    }
+                    Thread.yield();
+                    continue;
+                }
+
+                sleeping = 1;
+                if (isEmpty() && !shutdown) {
+                    LockSupport.park(this);
+                }
+                sleeping = 0;
+                idle = 0;
+            }
+        }
+    }
+}
@@ -1,75 +1,313 @@
 package au.com.ds.ef;
 
+import au.com.ds.ef.err.ExecutionError;
 import au.com.ds.ef.err.LogicViolationError;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 import java.io.Serializable;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+/**
+ * State of a running context is kept in a single field: it holds the current {@link StateEnum} directly,
+ * and is replaced by a {@link Status} once the context gets terminated, stopped or failed.
+ * Completion future and string form of the id are created only when needed, as is the holder of data
+ * used only by some flows (mailbox, pending timeouts, flight log, trigger permits, journal sequence).
+ */
 @SuppressWarnings("rawtypes")
 public class StatefulContext implements Serializable {
-    private static final long serialVersionUID = 2324535129909715649L;
-    private static volatile long idCounter = 1;
+    private static final long serialVersionUID = -4129658327465073251L;
+    private static final AtomicLong idCounter = new AtomicLong(1);
 
-    private final String id;
+    private static final int TERMINATED = 1;
+    private static final int STOPPED = 2;
+
+    private static final AtomicReferenceFieldUpdater<StatefulContext, Object> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(StatefulContext.class, Object.class, "state");
+    private static final AtomicReferenceFieldUpdater<StatefulContext, SettableFuture> COMPLETION =
+            AtomicReferenceFieldUpdater.newUpdater(StatefulContext.class, SettableFuture.class, "completion");
+    private static final AtomicReferenceFieldUpdater<StatefulContext, Extras> EXTRAS =
+            AtomicReferenceFieldUpdater.newUpdater(StatefulContext.class, Extras.class, "extras");
+
+    /**
+     * State together with terminated/stopped flags and the error which terminated the context.
+     */
+    private abstract static class Word implements Serializable {
+        private static final long serialVersionUID = 8103618722491284763L;
+
+        abstract StateEnum state();
+
+        abstract int flags();
+
+        abstract ExecutionError error();
+    }
+
+    private static final class Status extends Word {
+        private static final long serialVersionUID = -2880722367370440951L;
+        private final StateEnum state;
+        private final int flags;
+        private final ExecutionError error;
+
+        Status(StateEnum state, int flags, ExecutionError error) {
+            this.state = state;
+            this.flags = flags;
+            this.error = error;
+        }
+
+        @Override
+        StateEnum state() {
+            return state;
+        }
+
+        @Override
+        int flags() {
+            return flags;
+        }
+
+        @Override
+        ExecutionError error() {
+            return error;
+        }
+    }
+
+    /**
+     * Used once {@link #getStateRef()} was requested, state is kept in the exposed reference from then on.
+     */
+    private static final class Inflated extends Word {
+        private static final long serialVersionUID = 5541707405932839571L;
+        private static final AtomicIntegerFieldUpdater<Inflated> FLAGS =
+                AtomicIntegerFieldUpdater.newUpdater(Inflated.class, "flags");
+
+        private final AtomicReference<StateEnum> ref;
+        private volatile int flags;
+        private volatile ExecutionError error;
+
+        Inflated(StateEnum state, int flags, ExecutionError error) {
+            this.ref = new AtomicReference<StateEnum>(state);
+            this.flags = flags;
+            this.error = error;
+        }
+
+        @Override
+        StateEnum state() {
+            return ref.get();
+        }
+
+        @Override
+        int flags() {
+            return flags;
+        }
+
+        @Override
+        ExecutionError error() {
+            return error;
+        }
+
+        boolean addFlags(int f) {
+            for (; ; ) {
+                int current = flags;
+                if ((current & f) == f) {
+                    return false;
+                }
+                if (FLAGS.compareAndSet(this, current, current | f)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Data of a context used only by some flows, each created on first use.
+     */
+    private static final class Extras {
+        private static final AtomicReferenceFieldUpdater<Extras, Mailbox> MAILBOX =
+                AtomicReferenceFieldUpdater.newUpdater(Extras.class, Mailbox.class, "mailbox");
+        private static final AtomicReferenceFieldUpdater<Extras, FlowTimeouts.Pending> TIMEOUTS =
+                AtomicReferenceFieldUpdater.newUpdater(Extras.class, FlowTimeouts.Pending.class, "timeouts");
+        private static final AtomicReferenceFieldUpdater<Extras, FlightRecorder.Ring> FLIGHT_LOG =
+                AtomicReferenceFieldUpdater.newUpdater(Extras.class, FlightRecorder.Ring.class, "flightLog");
+        private static final AtomicReferenceFieldUpdater<Extras, Semaphore> PERMITS =
+                AtomicReferenceFieldUpdater.newUpdater(Extras.class, Semaphore.class, "permits");
+        private static final AtomicReferenceFieldUpdater<Extras, TransitionJournal.Sequence> JOURNAL_SEQUENCE =
+                AtomicReferenceFieldUpdater.newUpdater(Extras.class, TransitionJournal.Sequence.class,
+                        "journalSequence");
+        private static final AtomicLongFieldUpdater<Extras> STATE_ENTERED =
+                AtomicLongFieldUpdater.newUpdater(Extras.class, "stateEnteredNanos");
+
+        private volatile Mailbox mailbox;
+        private volatile FlowTimeouts.Pending timeouts;
+        // written by the thread entering the state, read by the one leaving it
+        private volatile long stateEnteredNanos;
+        private volatile FlightRecorder.Ring flightLog;
+        private volatile Semaphore permits;
+        private volatile TransitionJournal.Sequence journalSequence;
+    }
+
+    private final long id;
+    private final String name;
+    private transient String idString;
     private Flow flow;
-    private final AtomicReference<StateEnum> state = new AtomicReference<StateEnum>();
-    private final AtomicBoolean terminated = new AtomicBoolean(false);
-    private final AtomicBoolean stopped = new AtomicBoolean(false);
-    private final CountDownLatch completionLatch = new CountDownLatch(1);
+    private volatile Object state;
+    private transient volatile SettableFuture<StateEnum> completion;
+    private transient volatile Extras extras;
 
     public StatefulContext() {
-        id = newId() + ":" + getClass().getSimpleName();
+        id = newId();
+        name = null;
     }
 
     public StatefulContext(String aId) {
-        id = aId + ":" + getClass().getSimpleName();
+        id = newId();
+        name = aId;
     }
 
     public String getId() {
-        return id;
+        String s = idString;
+        if (s == null) {
+            s = (name != null ? name : String.valueOf(id)) + ":" + getClass().getSimpleName();
+            idString = s;
+        }
+        return s;
     }
 
+    /**
+     * Compatibility view of the state. Once requested, state of this context is kept in the returned reference,
+     * prefer {@link #getStateValue()} when only reading the state.
+     */
     public AtomicReference<StateEnum> getStateRef() {
-        return state;
+        for (; ; ) {
+            Object s = state;
+            if (s instanceof Inflated) {
+                return ((Inflated) s).ref;
+            }
+
+            Inflated inflated = new Inflated(stateOf(s), flagsOf(s), errorOf(s));
+            if (STATE.compareAndSet(this, s, inflated)) {
+                return inflated.ref;
+            }
+        }
     }
 
     public StateEnum getStateValue() {
-        return state.get();
+        return stateOf(state);
+    }
+
+    private static StateEnum stateOf(Object s) {
+        return s instanceof Word ? ((Word) s).state() : (StateEnum) s;
+    }
+
+    private static int flagsOf(Object s) {
+        return s instanceof Word ? ((Word) s).flags() : 0;
+    }
+
+    private static ExecutionError errorOf(Object s) {
+        return s instanceof Word ? ((Word) s).error() : null;
+    }
+
+    void setState(StateEnum target) {
+        for (; ; ) {
+            Object s = state;
+            if (s instanceof Inflated) {
+                ((Inflated) s).ref.set(target);
+                return;
+            }
+
+            Object next = s instanceof Status ? new Status(target, ((Status) s).flags, ((Status) s).error) : target;
+            if (STATE.compareAndSet(this, s, next)) {
+                return;
+            }
+        }
+    }
+
+    boolean compareAndSetState(StateEnum expected, StateEnum target) {
+        for (; ; ) {
+            Object s = state;
+            if (s instanceof Inflated) {
+                return ((Inflated) s).ref.compareAndSet(expected, target);
+            }
+
+            if (stateOf(s) != expected) {
+                return false;
+            }
+
+            Object next = s instanceof Status ? new Status(target, ((Status) s).flags, ((Status) s).error) : target;
+            if (STATE.compareAndSet(this, s, next)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean addFlags(int flags) {
+        for (; ; ) {
+            Object s = state;
+            if (s instanceof Inflated) {
+                return ((Inflated) s).addFlags(flags);
+            }
+
+            int current = flagsOf(s);
+            if ((current & flags) == flags) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, s, new Status(stateOf(s), current | flags, errorOf(s)))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Records error which terminates the context, completion future fails with it.
+     */
+    void setError(ExecutionError error) {
+        for (; ; ) {
+            Object s = state;
+            if (s instanceof Inflated) {
+                ((Inflated) s).error = error;
+                return;
+            }
+
+            if (STATE.compareAndSet(this, s, new Status(stateOf(s), flagsOf(s), error))) {
+                return;
+            }
+        }
     }
 
     @Override
     public int hashCode() {
-        return id.hashCode();
+        return name != null ? name.hashCode() : (int) (id ^ (id >>> 32));
     }
 
     @Override
     public boolean equals(Object obj) {
-        if (this == obj)
-            return true;
-        if (obj == null)
-            return false;
-        if (getClass() != obj.getClass())
-            return false;
-        StatefulContext other = (StatefulContext) obj;
-        if (id != other.id)
-            return false;
-        return true;
+        return this == obj;
     }
 
     public void stop() {
-        stopped.set(true);
+        addFlags(STOPPED);
         setTerminated();
     }
 
     public boolean isStopped() {
-        return stopped.get();
+        return (flagsOf(state) & STOPPED) != 0;
     }
 
     public boolean safeTrigger(EventEnum event) {
-        return flow.safeTrigger(event, this);
+        return flow.tryTrigger(event, this).isAccepted();
+    }
+
+    public TriggerResult tryTrigger(EventEnum event) {
+        return flow.tryTrigger(event, this);
+    }
+
+    public TriggerResult tryConditionTrigger(EventEnum event, StateEnum condition) {
+        return flow.tryConditionTrigger(event, this, condition);
     }
 
     public boolean conditionTrigger(EventEnum event, StateEnum condition) throws LogicViolationError {
@@ -80,45 +318,200 @@ public class StatefulContext implements Serializable {
         return flow.trigger(event, this);
     }
 
+    /**
+     * Triggers the event after the delay unless the context terminates before.
+     */
+    public FlowTimer.Timeout triggerAfter(EventEnum event, long delay, TimeUnit unit) {
+        return flow.triggerAfter(event, this, delay, unit);
+    }
+
     protected void setFlow(Flow<? extends StatefulContext> flow) {
         this.flow = flow;
     }
 
+    private Extras extras() {
+        Extras e = extras;
+        if (e == null) {
+            e = new Extras();
+            if (!EXTRAS.compareAndSet(this, null, e)) {
+                e = extras;
+            }
+        }
+        return e;
+    }
+
+    Mailbox getMailbox() {
+        Extras e = extras();
+        Mailbox m = e.mailbox;
+        if (m == null) {
+            m = new Mailbox();
+            if (!Extras.MAILBOX.compareAndSet(e, null, m)) {
+                m = e.mailbox;
+            }
+        }
+        return m;
+    }
+
+    /**
+     * @return permits of pending triggers of this context, see {@link Backpressure}
+     */
+    Semaphore getPermits(int capacity) {
+        Extras e = extras();
+        Semaphore p = e.permits;
+        if (p == null) {
+            p = new Semaphore(capacity);
+            if (!Extras.PERMITS.compareAndSet(e, null, p)) {
+                p = e.permits;
+            }
+        }
+        return p;
+    }
+
+    TransitionJournal.Sequence getJournalSequence() {
+        Extras e = extras();
+        TransitionJournal.Sequence s = e.journalSequence;
+        if (s == null) {
+            s = new TransitionJournal.Sequence();
+            if (!Extras.JOURNAL_SEQUENCE.compareAndSet(e, null, s)) {
+                s = e.journalSequence;
+            }
+        }
+        return s;
+    }
+
+    FlowTimeouts.Pending getPendingTimeouts() {
+        Extras e = extras();
+        FlowTimeouts.Pending p = e.timeouts;
+        if (p == null) {
+            p = new FlowTimeouts.Pending();
+            if (!Extras.TIMEOUTS.compareAndSet(e, null, p)) {
+                p = e.timeouts;
+            }
+        }
+        return p;
+    }
+
+    FlowTimeouts.Pending getPendingTimeoutsIfAny() {
+        Extras e = extras;
+        return e != null ? e.timeouts : null;
+    }
+
+    FlightRecorder.Ring getFlightLog(int capacity) {
+        Extras e = extras();
+        FlightRecorder.Ring r = e.flightLog;
+        if (r == null) {
+            r = new FlightRecorder.Ring(capacity);
+            if (!Extras.FLIGHT_LOG.compareAndSet(e, null, r)) {
+                r = e.flightLog;
+            }
+        }
+        return r;
+    }
+
+    FlightRecorder.Ring getFlightLogIfAny() {
+        Extras e = extras;
+        return e != null ? e.flightLog : null;
+    }
+
+    long getStateEnteredNanos() {
+        Extras e = extras;
+        return e != null ? e.stateEnteredNanos : 0;
+    }
+
+    void setStateEnteredNanos(long nanos) {
+        Extras.STATE_ENTERED.lazySet(extras(), nanos);
+    }
+
     protected long newId() {
-        return idCounter++;
+        return idCounter.getAndIncrement();
+    }
+
+    long getIdNumber() {
+        return id;
+    }
+
+    /**
+     * @return id the context was created with, null if it has none
+     */
+    String getName() {
+        return name;
     }
 
     public boolean isTerminated() {
-        return terminated.get();
+        return (flagsOf(state) & TERMINATED) != 0;
     }
 
     public boolean isRunning() {
-        return isStarted() && !terminated.get();
+        return isStarted() && !isTerminated();
     }
 
     public boolean isStarted() {
-        return state != null;
+        return getStateValue() != null;
     }
 
     protected void setTerminated() {
-        this.terminated.set(true);
-        this.completionLatch.countDown();
+        addFlags(TERMINATED);
+        FlowTimeouts.Pending pending = getPendingTimeoutsIfAny();
+        if (pending != null) {
+            pending.cancelAll();
+        }
+
+        SettableFuture<StateEnum> future = completion;
+        if (future != null) {
+            complete(future);
+        }
+    }
+
+    private void complete(SettableFuture<StateEnum> future) {
+        Object s = state;
+        ExecutionError error = errorOf(s);
+        if (error != null) {
+            future.setException(error);
+        } else {
+            future.set(stateOf(s));
+        }
+    }
+
+    /**
+     * Future completed with the final state once the context terminates,
+     * or failed with the {@link ExecutionError} which terminated it.
+     */
+    public ListenableFuture<StateEnum> getCompletion() {
+        SettableFuture<StateEnum> future = completion;
+        if (future == null) {
+            future = SettableFuture.create();
+            if (!COMPLETION.compareAndSet(this, null, future)) {
+                future = completion;
+            }
+        }
+
+        // termination could happen before the future was published
+        if (isTerminated()) {
+            complete(future);
+        }
+        return future;
     }
 
     public List<Transition> getAvailableTransitions() {
-        return flow.getAvailableTransitions(state.get());
+        return flow.getAvailableTransitions(getStateValue());
     }
 
     protected void awaitTermination() {
+        if (isTerminated()) {
+            return;
+        }
+
         try {
-            this.completionLatch.await();
+            getCompletion().get();
         } catch (InterruptedException e) {
-            Thread.interrupted();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // terminated by error
         }
     }
 
     @Override
     public String toString() {
-        return id;
+        return getId();
     }
 }
@@ -7,9 +7,12 @@ import java.util.List;
 
 public class ToHolder {
 
-    private static ThreadLocal<List<Transition>> defaultTransitions = new InheritableThreadLocal<List<Transition>>() {{
-        set(new ArrayList<Transition>());
-    }};
+    private static ThreadLocal<List<Transition>> defaultTransitions = new InheritableThreadLocal<List<Transition>>() {
+        @Override
+        protected List<Transition> initialValue() {
+            return new ArrayList<Transition>();
+        }
+    };
 
     public static void resetDefaultTransitions() {
         defaultTransitions.set(new ArrayList<Transition>());
@@ -29,11 +32,17 @@ public class ToHolder {
         return clone;
     }
 
+    private final FlowScope scope;
     private EventEnum event[];
 
     public ToHolder(EventEnum... event) {
+        this(null, event);
+    }
+
+    ToHolder(FlowScope scope, EventEnum... event) {
         if (event == null && event.length > 0)
             throw new IllegalArgumentException("Non empty array of events required.");
+        this.scope = scope;
         this.event = event;
     }
 
@@ -57,16 +66,26 @@ public class ToHolder {
     }
 
     public Transition to(StateEnum state) {
-
+        if (scope != null) {
+            return RegularTransition.spanTransitionTree(
+                    Lists.newArrayList(event), state, false, scope.defaultTransitions(), scope.repository());
+        }
         return RegularTransition.spanTransitionTree(Lists.newArrayList(event), state, false, defaultTransitions.get());
     }
 
     public Transition finish(StateEnum state) {
-        return RegularTransition.spanTransitionTree(Lists.newArrayList(event), state, true, null);
+        return span(state, true);
     }
 
     public Transition backTo(StateEnum state) {
-        return RegularTransition.spanTransitionTree(Lists.newArrayList(event), state, false, null);
+        return span(state, false);
+    }
+
+    private Transition span(StateEnum state, boolean isFinal) {
+        if (scope != null) {
+            return RegularTransition.spanTransitionTree(Lists.newArrayList(event), state, isFinal, null, scope.repository());
+        }
+        return RegularTransition.spanTransitionTree(Lists.newArrayList(event), state, isFinal, null);
     }
 }
 
@@ -1,8 +1,13 @@
 package au.com.ds.ef;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public abstract class Transition {
 
@@ -36,20 +41,80 @@ public abstract class Transition {
 
     public abstract Transition transit(Transition... transitions);
 
+    /**
+     * Transitions created by the DSL on the current thread or in a {@link FlowScope}, consumed by the flow built from them.
+     * Transitions created by {@code emit} are indexed, so that sub-flows are connected without rescanning the repository.
+     * Default transitions are not copied to every state, states only refer to the shared list as their fallback.
+     */
     static class Repository {
-        private final static ThreadLocal<List<Transition>> transitions = new ThreadLocal<List<Transition>>() {{
-            set(new ArrayList<Transition>());
-        }};
+        private final static ThreadLocal<Repository> current = new ThreadLocal<Repository>() {
+            @Override
+            protected Repository initialValue() {
+                return new Repository();
+            }
+        };
 
-        static List<Transition> get() {
-            return transitions.get();
+        // insertion ordered, transitions are compared by identity
+        private final Set<Transition> transitions = new LinkedHashSet<Transition>();
+        private final Set<Transition> emitted = new LinkedHashSet<Transition>();
+        private final Map<StateEnum, List<Transition>> fallbacks = new LinkedHashMap<StateEnum, List<Transition>>();
+
+        static Repository current() {
+            return current.get();
+        }
+
+        /**
+         * @return repository of the current thread, which is replaced by a new one
+         */
+        static Repository detach() {
+            Repository repository = current.get();
+            current.remove();
+            return repository;
         }
 
         static List<Transition> consume() {
-            List<Transition> ts = transitions.get();
-            transitions.set(new ArrayList<Transition>());
-            return ts;
+            return detach().created();
+        }
+
+        List<Transition> created() {
+            return new ArrayList<Transition>(transitions);
+        }
+
+        /**
+         * @return default transitions by the states using them
+         */
+        Map<StateEnum, List<Transition>> fallbacks() {
+            return fallbacks;
+        }
+
+        void clear() {
+            transitions.clear();
+            emitted.clear();
+            fallbacks.clear();
+        }
+
+        void add(Transition transition) {
+            transitions.add(transition);
+            if (transition.getStateTo() == null) {
+                emitted.add(transition);
+            }
+        }
+
+        void remove(Transition transition) {
+            if (transitions.remove(transition)) {
+                emitted.remove(transition);
+            }
+        }
+
+        void fallback(StateEnum state, List<Transition> defaultTransitions) {
+            fallbacks.put(state, defaultTransitions);
+        }
+
+        /**
+         * @return transitions created by {@code emit} which were not connected to a sub-flow yet
+         */
+        Collection<Transition> emitted() {
+            return emitted;
         }
     }
 }
-
@@ -1,14 +1,11 @@
 package au.com.ds.ef;
 
 import au.com.ds.ef.err.DefinitionError;
-import com.google.common.base.Predicate;
-import com.google.common.collect.FluentIterable;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -19,73 +16,87 @@ import java.util.Set;
  * Time: 2:08 PM
  */
 final class TransitionCollection {
-    private Map<StateEnum, Map<EventEnum, Transition>> transitionFromState = new HashMap<StateEnum, Map<EventEnum, Transition>>();
-    private Set<StateEnum> finalStates = new HashSet<StateEnum>();
+    private final TransitionTable table;
 
     protected TransitionCollection(Collection<Transition> transitions, boolean validate) {
-        if (transitions != null) {
-            for (Transition transition : transitions) {
-                Map<EventEnum, Transition> map = transitionFromState.get(transition.getStateFrom());
-                if (map == null) {
-                    map = new HashMap<EventEnum, Transition>();
-                    transitionFromState.put(transition.getStateFrom(), map);
-                }
-                map.put(transition.getEvent(), transition);
-                if (transition.isFinal()) {
-                    finalStates.add(transition.getStateTo());
-                }
-            }
-        }
+        this(transitions, Collections.<StateEnum, List<Transition>>emptyMap(), validate);
+    }
+
+    /**
+     * @param fallbacks - default transitions by the states using them for events without own transitions
+     */
+    TransitionCollection(Collection<Transition> transitions, Map<StateEnum, List<Transition>> fallbacks,
+                         boolean validate) {
+        table = new TransitionTable(transitions != null ? transitions : Collections.<Transition>emptyList(), fallbacks);
 
         if (validate) {
             if (transitions == null || transitions.isEmpty()) {
                 throw new DefinitionError("No transitions defined");
             }
 
-            Set<Transition> processedTransitions = new HashSet<Transition>();
-            for (final Transition transition : transitions) {
+            // (state, event) ordinal pairs of processed transitions
+            Set<Long> processed = new HashSet<Long>();
+            for (Transition transition : transitions) {
                 StateEnum stateFrom = transition.getStateFrom();
-                if (finalStates.contains(stateFrom)) {
+                if (table.isFinal(stateFrom)) {
                     throw new DefinitionError("Some events defined for final State: " + stateFrom);
                 }
 
-                if (FluentIterable.from(processedTransitions)
-                        .anyMatch(new Predicate<Transition>() {
-                            @Override
-                            public boolean apply(Transition pt) {
-                                return pt.getStateFrom() == transition.getStateFrom() &&
-                                        pt.getEvent() == transition.getEvent();
-                            }
-                        })) {
+                long key = (long) table.states().indexOf(stateFrom) << 32
+                        | table.events().indexOf(transition.getEvent()) & 0xFFFFFFFFL;
+                if (!processed.add(key)) {
                     throw new DefinitionError("Ambiguous transitions: " + transition);
                 }
 
                 StateEnum stateTo = transition.getStateTo();
-                if (!finalStates.contains(stateTo) &&
-                        !transitionFromState.containsKey(stateTo)) {
+                if (!table.isFinal(stateTo) &&
+                        !table.hasTransitions(stateTo)) {
                     throw new DefinitionError("No events defined for non-final State: " + stateTo);
                 }
 
                 if (stateFrom.equals(stateTo)) {
                     throw new DefinitionError("Circular transition: " + transition);
                 }
+            }
+
+            // default transitions are shared, each is validated once and for the states actually using it
+            Set<Transition> validated = Collections.newSetFromMap(new IdentityHashMap<Transition, Boolean>());
+            for (Map.Entry<StateEnum, List<Transition>> entry : fallbacks.entrySet()) {
+                StateEnum state = entry.getKey();
+                for (Transition transition : TransitionTable.defaults(entry.getValue())) {
+                    if (table.get(state, transition.getEvent()) != transition) {
+                        continue;
+                    }
+
+                    if (table.isFinal(state)) {
+                        throw new DefinitionError("Some events defined for final State: " + state);
+                    }
+                    if (state.equals(transition.getStateTo())) {
+                        throw new DefinitionError("Circular transition: " + transition);
+                    }
 
-                processedTransitions.add(transition);
+                    StateEnum stateTo = transition.getStateTo();
+                    if (validated.add(transition) && !table.isFinal(stateTo) && !table.hasTransitions(stateTo)) {
+                        throw new DefinitionError("No events defined for non-final State: " + stateTo);
+                    }
+                }
             }
         }
     }
 
     public Transition getTransition(StateEnum stateFrom, EventEnum event) {
-        Map<EventEnum, Transition> transitionMap = transitionFromState.get(stateFrom);
-        return transitionMap == null ? null : transitionMap.get(event);
+        return table.get(stateFrom, event);
     }
 
     public List<Transition> getTransitions(StateEnum stateFrom) {
-        Map<EventEnum, Transition> transitionMap = transitionFromState.get(stateFrom);
-        return transitionMap == null ? Collections.<Transition>emptyList() : new ArrayList<Transition>(transitionMap.values());
+        return table.getAll(stateFrom);
     }
 
     protected boolean isFinal(StateEnum state) {
-        return finalStates.contains(state);
+        return table.isFinal(state);
+    }
+
+    TransitionTable getTable() {
+        return table;
     }
 }
@@ -0,0 +1,629 @@
+package au.com.ds.ef;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of accepted transitions, used to rebuild contexts in flight after a restart:
+ * <pre>
+ * TransitionJournal journal = new TransitionJournal(dir, TransitionJournal.Durability.PERIODIC);
+ * flow.journal(journal);
+ * for (TransitionJournal.Entry entry : journal.recover().values()) {
+ *     flow.start(new OrderContext(entry.getContextName()), entry.getStateTo());
+ * }
+ * </pre>
+ * Transitions are queued when the state is changed and written by one journal thread into memory-mapped segment
+ * files. The thread writes all queued records at once and forces them to disk with a single call, so transitions
+ * of concurrent contexts share one fsync (group commit). See {@link Durability} for when records are forced.
+ * <p>
+ * Records keep states and events as ordinals of the flow definition, so the journal has to be read by a flow
+ * with the same transitions. Each open starts a new segment, older segments are kept until deleted by the user.
+ * Closing the journal unmaps its segment and truncates it to the written records.
+ * <p>
+ * Records of one context are numbered in the order its state changed, threads racing to journal two quick
+ * transitions may queue them the other way round. Recovery resolves the last transition by the number.
+ */
+public class TransitionJournal {
+    private static final Logger logger = LoggerFactory.getLogger(TransitionJournal.class);
+
+    private static final AtomicInteger instances = new AtomicInteger();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SUFFIX = ".journal";
+
+    // length, crc, context number, sequence, time, from, to, event, name length
+    private static final int HEADER = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4 + 2;
+    private static final int MAX_NAME = Short.MAX_VALUE;
+
+    // wakes up the journal thread when closing
+    private static final Record CLOSE = new Record(0, null, 0, 0, -1, -1, -1);
+    // first record of each open, sequences of contexts start over after it
+    private static final int OPENED_STATE = -2;
+    private static final Record OPENED = new Record(0, null, 0, 0, -1, OPENED_STATE, -1);
+
+    public enum Durability {
+        /**
+         * Records are written by the journal thread and flushed to disk by the operating system.
+         * They survive a crash of the process once written, queued records are lost.
+         */
+        ASYNC,
+        /**
+         * As {@link #ASYNC}, written records are also forced to disk every commit interval.
+         */
+        PERIODIC,
+        /**
+         * The state change waits until its record is forced to disk,
+         * records of transitions waiting at the same time are forced together.
+         */
+        SYNC
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final Durability durability;
+    private final long commitNanos;
+
+    private final BlockingQueue<Record> queue;
+    private final Thread writer;
+    private final Object commits = new Object();
+
+    private volatile TransitionTable table;
+    private volatile boolean closed;
+    // appenders count themselves while they check for close and queue, the journal thread stops once none is left
+    private final AtomicInteger appending = new AtomicInteger();
+    // set by the journal thread once it can't write anymore, guarded by commits for waiters
+    private volatile IOException failure;
+    private volatile boolean stopped;
+
+    // owned by the journal thread
+    private long segmentIndex;
+    private File segmentFile;
+    private MappedByteBuffer segment;
+    private final ByteBuffer staging = ByteBuffer.allocate(HEADER + MAX_NAME);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * 64 MB segments, 10 ms commit interval, given durability.
+     */
+    public TransitionJournal(File directory, Durability durability) throws IOException {
+        this(directory, 64 << 20, durability, 10, TimeUnit.MILLISECONDS, 65536);
+    }
+
+    /**
+     * @param segmentSize - size of one segment file in bytes
+     * @param commitInterval - how often {@link Durability#PERIODIC} journal forces written records
+     * @param capacity - number of records queued for the journal thread, state changes wait when it is full
+     */
+    public TransitionJournal(File directory, int segmentSize, Durability durability,
+                             long commitInterval, TimeUnit unit, int capacity) throws IOException {
+        if (segmentSize < HEADER + MAX_NAME + 4) {
+            throw new IllegalArgumentException("Segment has to fit the largest record.");
+        }
+        if (commitInterval <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("Commit interval and capacity have to be positive.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create journal directory " + directory);
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.durability = durability;
+        this.commitNanos = unit.toNanos(commitInterval);
+        this.queue = new LinkedBlockingQueue<Record>(capacity);
+
+        File[] existing = segments(directory);
+        segmentIndex = existing.length > 0 ? index(existing[existing.length - 1]) + 1 : 1;
+        segmentFile = new File(directory, name(segmentIndex));
+        segment = map(segmentFile, FileChannel.MapMode.READ_WRITE, segmentSize);
+        queue.offer(OPENED);
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "easyflow-journal-" + instances.incrementAndGet());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    void bind(TransitionTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Changes the state of the context and numbers the change for its journal record,
+     * see {@link #setState(StatefulContext, StateEnum)}.
+     *
+     * @return sequence of the change, 0 if the context was not in the expected state
+     */
+    static long compareAndSetState(StatefulContext context, StateEnum expected, StateEnum target) {
+        Sequence s = context.getJournalSequence();
+        synchronized (s) {
+            return context.compareAndSetState(expected, target) ? s.next() : 0;
+        }
+    }
+
+    /**
+     * Changes the state of the context and numbers the change while holding the sequence of the context,
+     * so numbers of its records follow the order of state changes.
+     *
+     * @return sequence of the change
+     */
+    static long setState(StatefulContext context, StateEnum target) {
+        Sequence s = context.getJournalSequence();
+        synchronized (s) {
+            context.setState(target);
+            return s.next();
+        }
+    }
+
+    /**
+     * Journals the state change of the context, waits until the record is durable for {@link Durability#SYNC}.
+     *
+     * @param stateFrom - null when the context was started
+     * @param event - null when the context was started or moved back after its executor rejected the transition
+     * @param sequence - number of the state change, taken together with the change
+     * @throws IllegalStateException if the journal is closed or failed to write
+     */
+    void append(StatefulContext context, StateEnum stateFrom, StateEnum stateTo, EventEnum event, long sequence) {
+        TransitionTable t = table;
+        if (t == null) {
+            return;
+        }
+
+        Record record;
+        appending.incrementAndGet();
+        try {
+            checkOpen();
+
+            record = new Record(context.getIdNumber(), context.getName(), sequence, System.currentTimeMillis(),
+                    stateFrom != null ? t.states().indexOf(stateFrom) : -1,
+                    t.states().indexOf(stateTo),
+                    event != null ? t.events().indexOf(event) : -1);
+            queue.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while journaling " + context, e);
+        } finally {
+            appending.decrementAndGet();
+        }
+
+        if (durability == Durability.SYNC) {
+            awaitDurable(record);
+        }
+    }
+
+    private void checkOpen() {
+        if (failure != null) {
+            throw new IllegalStateException("Journal failed.", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Journal was closed.");
+        }
+    }
+
+    private void awaitDurable(Record record) {
+        boolean interrupted = false;
+        synchronized (commits) {
+            while (!record.durable && failure == null && !stopped) {
+                try {
+                    commits.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (!record.durable) {
+            checkOpen();
+            throw new IllegalStateException("Journal was closed.");
+        }
+    }
+
+    /**
+     * Writes queued records, forces them and stops the journal thread, which releases the segment.
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        queue.offer(CLOSE);
+        writer.join();
+    }
+
+    /**
+     * Journal thread: drains all queued records into the segment and forces them with one call.
+     */
+    private void write() {
+        List<Record> batch = new ArrayList<Record>();
+        long lastCommit = System.nanoTime();
+        boolean dirty = false;
+
+        while (failure == null) {
+            try {
+                // once closed, records of appenders which passed the check before are still waited for
+                Record first = closed && appending.get() == 0 ? queue.poll()
+                        : queue.poll(commitNanos, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    batch.remove(CLOSE);
+                }
+            } catch (InterruptedException e) {
+                logger.warn("Journal thread interrupted, closing");
+                closed = true;
+                continue;
+            }
+
+            try {
+                for (Record record : batch) {
+                    write(record);
+                }
+                dirty |= !batch.isEmpty();
+
+                long now = System.nanoTime();
+                boolean stop = closed && batch.isEmpty() && appending.get() == 0 && queue.isEmpty();
+                if (dirty && (durability == Durability.SYNC || stop ||
+                        durability == Durability.PERIODIC && now - lastCommit >= commitNanos)) {
+                    segment.force();
+                    lastCommit = now;
+                    dirty = false;
+                }
+                if (durability == Durability.SYNC && !batch.isEmpty()) {
+                    synchronized (commits) {
+                        for (Record record : batch) {
+                            record.durable = true;
+                        }
+                        commits.notifyAll();
+                    }
+                }
+                if (stop) {
+                    synchronized (commits) {
+                        stopped = true;
+                        commits.notifyAll();
+                    }
+                    break;
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new IOException("Journal write failed.", e));
+            }
+            batch.clear();
+        }
+        release();
+    }
+
+    /**
+     * Unmaps the segment and cuts off its unused rest, so reopening the journal doesn't keep whole segments.
+     */
+    private void release() {
+        int written = segment.position();
+        unmap(segment);
+        segment = null;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(segmentFile, "rw");
+            try {
+                raf.setLength(written);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Can't truncate journal segment " + segmentFile, e);
+        }
+    }
+
+    private void fail(IOException e) {
+        logger.error("Journal " + directory + " failed, transitions are not journaled anymore", e);
+        synchronized (commits) {
+            failure = e;
+            commits.notifyAll();
+        }
+        queue.clear();
+    }
+
+    private void write(Record record) throws IOException {
+        byte[] name = record.name != null ? record.name.getBytes(UTF_8) : new byte[0];
+        int nameLength = Math.min(name.length, MAX_NAME);
+        int length = HEADER + nameLength;
+
+        ByteBuffer b = staging;
+        b.clear();
+        b.putInt(length).putInt(0)
+                .putLong(record.contextId).putLong(record.sequence).putLong(record.time)
+                .putInt(record.stateFrom).putInt(record.stateTo).putInt(record.event)
+                .putShort((short) (record.name != null ? nameLength : -1)).put(name, 0, nameLength);
+        crc.reset();
+        crc.update(b.array(), 8, length - 8);
+        b.putInt(4, (int) crc.getValue());
+
+        // keep room for the zero length which ends the segment
+        if (segment.remaining() < length + 4) {
+            segment.force();
+            unmap(segment);
+            segmentFile = new File(directory, name(++segmentIndex));
+            segment = map(segmentFile, FileChannel.MapMode.READ_WRITE, segmentSize);
+        }
+        segment.put(b.array(), 0, length);
+    }
+
+    /**
+     * @return transitions of all segments in the directory, in the order they were written
+     */
+    public List<Entry> read() throws IOException {
+        TransitionTable t = table;
+        if (t == null) {
+            throw new IllegalStateException("Journal is not bound to a flow.");
+        }
+
+        List<Entry> entries = new ArrayList<Entry>();
+        byte[] bytes = new byte[HEADER + MAX_NAME];
+        CRC32 check = new CRC32();
+        int generation = 0;
+        for (File file : segments(directory)) {
+            MappedByteBuffer b = map(file, FileChannel.MapMode.READ_ONLY, file.length());
+            try {
+                while (b.remaining() >= HEADER) {
+                    int start = b.position();
+                    int length = b.getInt(start);
+                    if (length < HEADER || length > b.remaining() || length > bytes.length) {
+                        break;
+                    }
+
+                    b.get(bytes, 0, length);
+                    check.reset();
+                    check.update(bytes, 8, length - 8);
+                    ByteBuffer r = ByteBuffer.wrap(bytes, 0, length);
+                    if (r.getInt(4) != (int) check.getValue()) {
+                        logger.warn("Torn record at {} of {}, rest of the segment is skipped", start, file);
+                        break;
+                    }
+
+                    r.position(8);
+                    long contextId = r.getLong();
+                    long sequence = r.getLong();
+                    long time = r.getLong();
+                    int from = r.getInt();
+                    int to = r.getInt();
+                    int event = r.getInt();
+                    int nameLength = r.getShort();
+                    if (to == OPENED_STATE) {
+                        generation++;
+                        continue;
+                    }
+                    String name = nameLength >= 0 ? new String(bytes, HEADER, nameLength, UTF_8) : null;
+                    entries.add(new Entry(contextId, name, generation, sequence, time,
+                            ordinal(t.states(), from), ordinal(t.states(), to), ordinal(t.events(), event)));
+                }
+            } finally {
+                unmap(b);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Last transitions of contexts not in a final state, by id of the context.
+     * Only contexts created with an id are included, numbers of other contexts differ after a restart.
+     * Transitions journaled out of order are resolved by their sequence, records of a later open win.
+     */
+    public Map<String, Entry> recover() throws IOException {
+        TransitionTable t = table;
+        Map<String, Entry> last = new LinkedHashMap<String, Entry>();
+        for (Entry entry : read()) {
+            String name = entry.getContextName();
+            if (name == null) {
+                continue;
+            }
+            Entry previous = last.get(name);
+            if (previous == null || previous.generation < entry.generation ||
+                    previous.generation == entry.generation && previous.sequence < entry.sequence) {
+                last.remove(name);
+                last.put(name, entry);
+            }
+        }
+
+        Map<String, Entry> inFlight = new LinkedHashMap<String, Entry>();
+        for (Map.Entry<String, Entry> e : last.entrySet()) {
+            StateEnum state = e.getValue().getStateTo();
+            if (state != null && !t.isFinal(state)) {
+                inFlight.put(e.getKey(), e.getValue());
+            }
+        }
+        return inFlight;
+    }
+
+    private static <T> T ordinal(Ordinals<T> ordinals, int index) {
+        return index >= 0 && index < ordinals.size() ? ordinals.valueOf(index) : null;
+    }
+
+    /**
+     * Releases the mapping right away instead of when the buffer is collected, the buffer can't be used anymore.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            try {
+                // Java 9 and later
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("Can't unmap journal segment, it is released once collected", e);
+        }
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            // the mapping stays valid once the file is closed
+            return raf.getChannel().map(mode, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static File[] segments(File directory) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        // names are zero padded, so they sort by index
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static String name(long index) {
+        return String.format("%020d%s", index, SUFFIX);
+    }
+
+    private static long index(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Number of the last journaled state change of a context, guards the change together with its numbering.
+     */
+    static final class Sequence {
+        private long last;
+
+        long next() {
+            return ++last;
+        }
+    }
+
+    private static final class Record {
+        final long contextId;
+        final String name;
+        final long sequence;
+        final long time;
+        final int stateFrom;
+        final int stateTo;
+        final int event;
+        // guarded by commits
+        boolean durable;
+
+        Record(long contextId, String name, long sequence, long time, int stateFrom, int stateTo, int event) {
+            this.contextId = contextId;
+            this.name = name;
+            this.sequence = sequence;
+            this.time = time;
+            this.stateFrom = stateFrom;
+            this.stateTo = stateTo;
+            this.event = event;
+        }
+    }
+
+    public static final class Entry {
+        private final long contextId;
+        private final String contextName;
+        // number of the open which wrote the entry, sequences restart with each
+        private final int generation;
+        private final long sequence;
+        private final long time;
+        private final StateEnum stateFrom;
+        private final StateEnum stateTo;
+        private final EventEnum event;
+
+        Entry(long contextId, String contextName, int generation, long sequence, long time,
+              StateEnum stateFrom, StateEnum stateTo, EventEnum event) {
+            this.contextId = contextId;
+            this.contextName = contextName;
+            this.generation = generation;
+            this.sequence = sequence;
+            this.time = time;
+            this.stateFrom = stateFrom;
+            this.stateTo = stateTo;
+            this.event = event;
+        }
+
+        /**
+         * @return number of the context in the process which journaled it
+         */
+        public long getContextId() {
+            return contextId;
+        }
+
+        /**
+         * @return id the context was created with, null if it had none
+         */
+        public String getContextName() {
+            return contextName;
+        }
+
+        /**
+         * @return number of the state change among changes of the context in the process which journaled it
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return {@link System#currentTimeMillis()} of the transition
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return null for the start of the context
+         */
+        public StateEnum getStateFrom() {
+            return stateFrom;
+        }
+
+        public StateEnum getStateTo() {
+            return stateTo;
+        }
+
+        /**
+         * @return null for the start of the context or when it was moved back after a rejected transition
+         */
+        public EventEnum getEvent() {
+            return event;
+        }
+
+        @Override
+        public String toString() {
+            return time + " " + (contextName != null ? contextName : contextId) + ": "
+                    + stateFrom + " -" + event + "-> " + stateTo;
+        }
+    }
+}
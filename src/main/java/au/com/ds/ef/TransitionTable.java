@@ -0,0 +1,245 @@
+package au.com.ds.ef;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compiled, immutable transition lookup.
+ * Transitions are stored in rows indexed by state ordinal, each row indexed by event ordinal.
+ * When transitions share the same (state, event) pair the last one wins.
+ * States using default transitions share one fallback row per list of defaults, consulted for events
+ * without own transition of the state.
+ */
+final class TransitionTable {
+    private final Ordinals<StateEnum> states;
+    private final Ordinals<EventEnum> events;
+    private final Transition[][] rows;
+    private final Transition[][] fallbackRows;
+    // default transitions as seen from each state, created on first use
+    private final AtomicReferenceArray<Transition[]> fallbackViews;
+    private final long[] finalStates;
+
+    TransitionTable(Collection<Transition> transitions) {
+        this(transitions, Collections.<StateEnum, List<Transition>>emptyMap());
+    }
+
+    TransitionTable(Collection<Transition> transitions, Map<StateEnum, List<Transition>> fallbacks) {
+        Set<StateEnum> stateKeys = new LinkedHashSet<StateEnum>();
+        Set<EventEnum> eventKeys = new LinkedHashSet<EventEnum>();
+        for (Transition transition : transitions) {
+            stateKeys.add(transition.getStateFrom());
+            stateKeys.add(transition.getStateTo());
+            eventKeys.add(transition.getEvent());
+        }
+        for (Map.Entry<StateEnum, List<Transition>> entry : fallbacks.entrySet()) {
+            stateKeys.add(entry.getKey());
+            for (Transition transition : defaults(entry.getValue())) {
+                stateKeys.add(transition.getStateTo());
+                eventKeys.add(transition.getEvent());
+            }
+        }
+
+        states = Ordinals.of(stateKeys);
+        events = Ordinals.of(eventKeys);
+        rows = new Transition[states.size()][];
+        fallbackRows = new Transition[states.size()][];
+        fallbackViews = new AtomicReferenceArray<Transition[]>(states.size());
+        finalStates = new long[(states.size() + 63) >>> 6];
+
+        for (Transition transition : transitions) {
+            int s = states.indexOf(transition.getStateFrom());
+            int e = events.indexOf(transition.getEvent());
+            if (s >= 0 && e >= 0) {
+                if (rows[s] == null) {
+                    rows[s] = new Transition[events.size()];
+                }
+                rows[s][e] = transition;
+            }
+
+            markFinal(transition);
+        }
+
+        Map<List<Transition>, Transition[]> shared = new IdentityHashMap<List<Transition>, Transition[]>();
+        for (Map.Entry<StateEnum, List<Transition>> entry : fallbacks.entrySet()) {
+            Transition[] row = shared.get(entry.getValue());
+            if (row == null) {
+                row = new Transition[events.size()];
+                for (Transition transition : defaults(entry.getValue())) {
+                    row[events.indexOf(transition.getEvent())] = transition;
+                    markFinal(transition);
+                }
+                shared.put(entry.getValue(), row);
+            }
+            fallbackRows[states.indexOf(entry.getKey())] = row;
+        }
+    }
+
+    /**
+     * @return default transitions including derived ones
+     */
+    static List<Transition> defaults(List<Transition> defaultTransitions) {
+        List<Transition> list = new ArrayList<Transition>();
+        for (Transition transition : defaultTransitions) {
+            list.add(transition);
+            list.addAll(transition.getDerivedTransitions());
+        }
+        return list;
+    }
+
+    private void markFinal(Transition transition) {
+        if (transition.isFinal()) {
+            int f = states.indexOf(transition.getStateTo());
+            if (f >= 0) {
+                finalStates[f >>> 6] |= 1L << f;
+            }
+        }
+    }
+
+    /**
+     * @return own transition of the state for the event, or its default transition
+     */
+    Transition get(StateEnum stateFrom, EventEnum event) {
+        int s = states.indexOf(stateFrom);
+        if (s < 0) {
+            return null;
+        }
+
+        int e = events.indexOf(event);
+        if (e < 0) {
+            return null;
+        }
+
+        Transition[] row = rows[s];
+        Transition transition = row != null ? row[e] : null;
+        if (transition == null) {
+            Transition[] fallback = fallbackRows[s];
+            transition = fallback != null ? fallback[e] : null;
+        }
+        return transition;
+    }
+
+    /**
+     * @return own and default transitions of the state, default transitions as seen from the state
+     */
+    List<Transition> getAll(StateEnum stateFrom) {
+        int s = states.indexOf(stateFrom);
+        Transition[] row = s < 0 ? null : rows[s];
+        Transition[] fallback = s < 0 ? null : fallbackRows[s];
+        if (row == null && fallback == null) {
+            return Collections.emptyList();
+        }
+
+        Transition[] views = fallback != null ? fallbackViews(s, stateFrom, fallback) : null;
+        List<Transition> list = new ArrayList<Transition>();
+        for (int e = 0; e < events.size(); e++) {
+            if (row != null && row[e] != null) {
+                list.add(row[e]);
+            } else if (views != null && views[e] != null) {
+                list.add(views[e]);
+            }
+        }
+        return list;
+    }
+
+    private Transition[] fallbackViews(int s, StateEnum stateFrom, Transition[] fallback) {
+        Transition[] views = fallbackViews.get(s);
+        if (views == null) {
+            views = new Transition[fallback.length];
+            for (int e = 0; e < fallback.length; e++) {
+                if (fallback[e] != null) {
+                    views[e] = new DefaultTransition(stateFrom, fallback[e]);
+                }
+            }
+            if (!fallbackViews.compareAndSet(s, null, views)) {
+                views = fallbackViews.get(s);
+            }
+        }
+        return views;
+    }
+
+    boolean hasTransitions(StateEnum stateFrom) {
+        int s = states.indexOf(stateFrom);
+        return s >= 0 && (rows[s] != null || fallbackRows[s] != null);
+    }
+
+    boolean isFinal(StateEnum state) {
+        int s = states.indexOf(state);
+        return s >= 0 && (finalStates[s >>> 6] & (1L << s)) != 0;
+    }
+
+    Ordinals<StateEnum> states() {
+        return states;
+    }
+
+    Ordinals<EventEnum> events() {
+        return events;
+    }
+
+    /**
+     * Shared default transition as seen from one state using it.
+     */
+    static final class DefaultTransition extends Transition {
+        private final Transition target;
+        private volatile StateEnum stateFrom;
+
+        DefaultTransition(StateEnum stateFrom, Transition target) {
+            this.stateFrom = stateFrom;
+            this.target = target;
+        }
+
+        @Override
+        public EventEnum getEvent() {
+            return target.getEvent();
+        }
+
+        @Override
+        public StateEnum getStateFrom() {
+            return stateFrom;
+        }
+
+        @Override
+        public StateEnum getStateTo() {
+            return target.getStateTo();
+        }
+
+        @Override
+        public boolean isFinal() {
+            return target.isFinal();
+        }
+
+        @Override
+        public void setStateFrom(StateEnum stateFrom) {
+            this.stateFrom = stateFrom;
+        }
+
+        @Override
+        public void propagateStateFrom(StateEnum stateFrom) {
+            setStateFrom(stateFrom);
+        }
+
+        /**
+         * Continues the shared default transition.
+         */
+        @Override
+        public Transition transit(Transition... transitions) {
+            target.transit(transitions);
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "Transition{" +
+                    "event=" + getEvent() +
+                    ", stateFrom=" + stateFrom +
+                    ", stateTo=" + getStateTo() +
+                    '}';
+        }
+    }
+}
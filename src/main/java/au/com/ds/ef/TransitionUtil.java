@@ -1,13 +1,11 @@
 package au.com.ds.ef;
 
-import com.google.common.base.Function;
-import com.google.common.base.Predicate;
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Lists;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class TransitionUtil {
 
@@ -15,33 +13,26 @@ public class TransitionUtil {
 
         if (dtList != null) {
             ArrayList<Transition> ret = Lists.newArrayList(transitions);
-            ret.addAll(FluentIterable.from(dtList)
-                    .filter(new Predicate<Transition>() {
-                        @Override
-                        public boolean apply(Transition dt) {
-                            return !isOverridePresent(dt, transitions);
-                        }
-                    }).toList());
+            Set<EventEnum> overridden = events(transitions);
+            for (Transition dt : dtList) {
+                if (!overridden.contains(dt.getEvent())) {
+                    ret.add(dt);
+                }
+            }
             return ret;
         } else {
             return Lists.newArrayList(transitions);
         }
     }
 
-    private static boolean isOverridePresent(final Transition dt, final Transition[] transitions) {
-        return FluentIterable.from(Lists.newArrayList(transitions))
-                .transformAndConcat(new Function<Transition, Iterable<Transition>>() {
-                    @Override
-                    public Iterable<Transition> apply(Transition t) {
-                        return FluentIterable.from(Collections.singletonList(t))
-                                .append(t.getDerivedTransitions())
-                                .toList();
-                    }
-                }).anyMatch(new Predicate<Transition>() {
-                    @Override
-                    public boolean apply(Transition t) {
-                        return t.getEvent() == dt.getEvent();
-                    }
-                });
+    private static Set<EventEnum> events(Transition[] transitions) {
+        Set<EventEnum> events = new HashSet<EventEnum>();
+        for (Transition t : transitions) {
+            events.add(t.getEvent());
+            for (Transition derived : t.getDerivedTransitions()) {
+                events.add(derived.getEvent());
+            }
+        }
+        return events;
     }
 }
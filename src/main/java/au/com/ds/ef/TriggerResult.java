@@ -0,0 +1,35 @@
+package au.com.ds.ef;
+
+/**
+ * Outcome of {@link Flow#tryTrigger(EventEnum, StatefulContext)}.
+ */
+public enum TriggerResult {
+    /**
+     * Transition was scheduled.
+     */
+    ACCEPTED,
+    /**
+     * Current state has no transition for the event.
+     */
+    REJECTED_NO_TRANSITION,
+    /**
+     * Current state is different than the expected one.
+     */
+    CONDITION_MISMATCH,
+    /**
+     * Context is already terminated.
+     */
+    TERMINATED,
+    /**
+     * State was concurrently changed by another trigger.
+     */
+    CAS_LOST,
+    /**
+     * Flow or context has too many pending triggers, see {@link Backpressure}.
+     */
+    REJECTED_BACKPRESSURE;
+
+    public boolean isAccepted() {
+        return this == ACCEPTED;
+    }
+}
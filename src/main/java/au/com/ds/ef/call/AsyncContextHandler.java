@@ -0,0 +1,13 @@
+package au.com.ds.ef.call;
+
+import au.com.ds.ef.StatefulContext;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Handler which starts its work and returns without waiting for it. The flow continues once the returned future
+ * completes, no executor thread is held meanwhile. Failed future is reported to the error handler,
+ * {@code null} is treated as completed.
+ */
+public interface AsyncContextHandler<C extends StatefulContext> extends Handler {
+    ListenableFuture<?> call(C context) throws Exception;
+}
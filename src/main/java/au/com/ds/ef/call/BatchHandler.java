@@ -0,0 +1,12 @@
+package au.com.ds.ef.call;
+
+import au.com.ds.ef.StatefulContext;
+
+import java.util.List;
+
+/**
+ * Handles contexts which entered a state within a batch window at once, e.g. to persist them with one statement.
+ */
+public interface BatchHandler<C extends StatefulContext> extends Handler {
+    void call(List<C> contexts) throws Exception;
+}
@@ -6,6 +6,14 @@ package au.com.ds.ef.log;
  * Time: 10:41 PM
  */
 public interface FlowLogger {
+    /**
+     * Flows check it before building arguments of {@link #info(String, Object...)}.
+     */
+    boolean isInfoEnabled();
+
+    /**
+     * @param message - {@link String#format(String, Object...)} pattern, formatted only when info is enabled
+     */
     void info(String message, Object... o);
 
     void error(String message, Throwable e);
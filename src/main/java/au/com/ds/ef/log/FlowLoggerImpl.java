@@ -7,6 +7,8 @@ import java.lang.reflect.Method;
 import static java.lang.String.format;
 
 /**
+ * Reflective slf4j binding used when {@link Slf4jFlowLogger} can't be loaded, logs to System.out without slf4j.
+ * <p>
  * User: andrey
  * Date: 20/02/2014
  * Time: 10:43 PM
@@ -14,6 +16,7 @@ import static java.lang.String.format;
 public class FlowLoggerImpl implements FlowLogger {
     private Object logger;
     private Method infoMethod;
+    private Method infoEnabledMethod;
     private Method errorMethod;
 
     public FlowLoggerImpl() {
@@ -24,6 +27,7 @@ public class FlowLoggerImpl implements FlowLogger {
             Method factoryMethod = factoryClass.getDeclaredMethod("getLogger", String.class);
             logger = factoryMethod.invoke(null, Flow.class.getName());
             infoMethod = loggerClass.getDeclaredMethod("info", String.class);
+            infoEnabledMethod = loggerClass.getDeclaredMethod("isInfoEnabled");
             errorMethod = loggerClass.getDeclaredMethod("error", String.class, Throwable.class);
             info("Using slf4j logging...");
         } catch (Exception e) {
@@ -31,8 +35,24 @@ public class FlowLoggerImpl implements FlowLogger {
         }
     }
 
+    @Override
+    public boolean isInfoEnabled() {
+        if (infoEnabledMethod != null) {
+            try {
+                return (Boolean) infoEnabledMethod.invoke(logger);
+            } catch (Exception e) {
+                return true;
+            }
+        }
+        return true;
+    }
+
     @Override
     public void info(String message, Object... o) {
+        if (!isInfoEnabled()) {
+            return;
+        }
+
         String formattedMessage = format(message, o);
         if (infoMethod != null) {
             try {
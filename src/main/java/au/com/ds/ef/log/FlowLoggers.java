@@ -0,0 +1,27 @@
+package au.com.ds.ef.log;
+
+/**
+ * Default {@link FlowLogger}: {@link Slf4jFlowLogger} when slf4j is on the classpath,
+ * otherwise the reflective {@link FlowLoggerImpl} falling back to System.out.
+ */
+public final class FlowLoggers {
+    private static final FlowLogger DEFAULT = create();
+
+    private FlowLoggers() {
+    }
+
+    public static FlowLogger getDefault() {
+        return DEFAULT;
+    }
+
+    private static FlowLogger create() {
+        try {
+            Class.forName("org.slf4j.LoggerFactory");
+            return new Slf4jFlowLogger();
+        } catch (ClassNotFoundException e) {
+            return new FlowLoggerImpl();
+        } catch (LinkageError e) {
+            return new FlowLoggerImpl();
+        }
+    }
+}
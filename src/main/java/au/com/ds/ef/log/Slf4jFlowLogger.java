@@ -0,0 +1,39 @@
+package au.com.ds.ef.log;
+
+import au.com.ds.ef.Flow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.String.format;
+
+/**
+ * Calls slf4j directly, messages are formatted only when info level is enabled.
+ */
+public class Slf4jFlowLogger implements FlowLogger {
+    private final Logger logger;
+
+    public Slf4jFlowLogger() {
+        this(LoggerFactory.getLogger(Flow.class));
+    }
+
+    public Slf4jFlowLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return logger.isInfoEnabled();
+    }
+
+    @Override
+    public void info(String message, Object... o) {
+        if (logger.isInfoEnabled()) {
+            logger.info(format(message, o));
+        }
+    }
+
+    @Override
+    public void error(String message, Throwable e) {
+        logger.error(message, e);
+    }
+}
@@ -0,0 +1,217 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.AsyncContextHandler;
+import au.com.ds.ef.call.ContextHandler;
+import au.com.ds.ef.call.ExecutionErrorHandler;
+import au.com.ds.ef.err.ExecutionError;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static au.com.ds.ef.AsyncHandlerTest.Events.done;
+import static au.com.ds.ef.AsyncHandlerTest.Events.fetch;
+import static au.com.ds.ef.AsyncHandlerTest.States.DONE;
+import static au.com.ds.ef.AsyncHandlerTest.States.FETCHING;
+import static au.com.ds.ef.AsyncHandlerTest.States.START;
+import static au.com.ds.ef.ToHolder.on;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncHandlerTest {
+    public enum States implements StateEnum {
+        START, FETCHING, DONE
+    }
+
+    public enum Events implements EventEnum {
+        fetch, done
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void clean() {
+        Transition.Repository.consume();
+        executor.shutdownNow();
+    }
+
+    private static EasyFlow<StatefulContext> easyFlow() {
+        return FlowBuilder.EasyFlowBuilder.from(START).transit(
+                on(fetch).to(FETCHING).transit(
+                        on(done).finish(DONE)
+                )
+        );
+    }
+
+    /**
+     * Waits for tasks already submitted to the single executor thread.
+     */
+    private void drain() throws Exception {
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Handler returning a future per context, completed by the test.
+     */
+    private static class PendingCalls implements AsyncContextHandler<StatefulContext> {
+        final ConcurrentHashMap<StatefulContext, SettableFuture<Void>> calls =
+                new ConcurrentHashMap<StatefulContext, SettableFuture<Void>>();
+        final CountDownLatch started;
+
+        PendingCalls(int count) {
+            started = new CountDownLatch(count);
+        }
+
+        @Override
+        public ListenableFuture<?> call(StatefulContext context) {
+            SettableFuture<Void> future = SettableFuture.create();
+            calls.put(context, future);
+            started.countDown();
+            return future;
+        }
+    }
+
+    @Test
+    public void shouldTriggerSuccessEventWithoutHoldingExecutorThread() throws Exception {
+        PendingCalls calls = new PendingCalls(2);
+        EasyFlow<StatefulContext> flow = easyFlow();
+        flow
+                .executor(executor)
+                .whenEnter(FETCHING, calls, done);
+
+        StatefulContext first = new StatefulContext();
+        StatefulContext second = new StatefulContext();
+        flow.start(first);
+        flow.start(second);
+        drain();
+        first.trigger(fetch);
+        second.trigger(fetch);
+
+        // both calls are pending on a single executor thread
+        assertTrue(calls.started.await(5, TimeUnit.SECONDS));
+        assertEquals(FETCHING, first.getStateValue());
+        assertEquals(FETCHING, second.getStateValue());
+
+        calls.calls.get(second).set(null);
+        assertEquals(DONE, second.getCompletion().get(5, TimeUnit.SECONDS));
+        assertFalse(first.isTerminated());
+
+        calls.calls.get(first).set(null);
+        assertEquals(DONE, first.getCompletion().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldRouteFailedFutureToErrorHandler() throws Exception {
+        final PendingCalls calls = new PendingCalls(1);
+        final SettableFuture<ExecutionError> reported = SettableFuture.create();
+        EasyFlow<StatefulContext> flow = easyFlow();
+        flow
+                .executor(executor)
+                .whenEnter(FETCHING, calls, done)
+                .whenError(new ExecutionErrorHandler<StatefulContext>() {
+                    @Override
+                    public void call(ExecutionError error, StatefulContext context) {
+                        reported.set(error);
+                    }
+                });
+
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+        drain();
+        ctx.trigger(fetch);
+        assertTrue(calls.started.await(5, TimeUnit.SECONDS));
+
+        IOException failure = new IOException("unreachable");
+        calls.calls.get(ctx).setException(failure);
+
+        ExecutionError error = reported.get(5, TimeUnit.SECONDS);
+        assertEquals(FETCHING, error.getState());
+        assertSame(failure, error.getCause());
+        try {
+            ctx.getCompletion().get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+        assertTrue(ctx.isTerminated());
+    }
+
+    @Test
+    public void shouldLeaveStateOnceAsyncEventHandlerCompletes() throws Exception {
+        final PendingCalls calls = new PendingCalls(1);
+        final AtomicBoolean left = new AtomicBoolean();
+        EasyFlow<StatefulContext> flow = easyFlow();
+        flow
+                .executor(executor)
+                .whenEvent(fetch, calls)
+                .whenLeave(START, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) {
+                        left.set(true);
+                    }
+                });
+
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+        drain();
+        ctx.trigger(fetch);
+        assertTrue(calls.started.await(5, TimeUnit.SECONDS));
+
+        // the executor is free while the event handler is pending
+        drain();
+        assertFalse(left.get());
+        assertEquals(START, ctx.getStateValue());
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        flow.whenEnter(FETCHING, new ContextHandler<StatefulContext>() {
+            @Override
+            public void call(StatefulContext context) {
+                entered.countDown();
+            }
+        });
+        calls.calls.get(ctx).set(null);
+
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        assertTrue(left.get());
+        assertEquals(FETCHING, ctx.getStateValue());
+    }
+
+    @Test
+    public void shouldTriggerSuccessEventFromEnterFlow() throws Exception {
+        PendingCalls calls = new PendingCalls(1);
+        EnterFlow<StatefulContext> flow = FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(fetch).to(FETCHING).transit(
+                        on(done).finish(DONE)
+                )
+        );
+        flow
+                .executor(executor)
+                .whenEnter(FETCHING, calls, done);
+
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+        drain();
+        ctx.trigger(fetch);
+        assertTrue(calls.started.await(5, TimeUnit.SECONDS));
+        assertEquals(FETCHING, ctx.getStateValue());
+
+        calls.calls.get(ctx).set(null);
+        assertEquals(DONE, ctx.getCompletion().get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,449 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.ContextHandler;
+import au.com.ds.ef.call.StateHandler;
+import au.com.ds.ef.err.ExecutionError;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static au.com.ds.ef.BackpressureTest.Events.back;
+import static au.com.ds.ef.BackpressureTest.Events.next;
+import static au.com.ds.ef.BackpressureTest.States.START;
+import static au.com.ds.ef.BackpressureTest.States.STATE_1;
+import static au.com.ds.ef.ToHolder.on;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BackpressureTest {
+    public enum States implements StateEnum {
+        START, STATE_1
+    }
+
+    public enum Events implements EventEnum {
+        next, back
+    }
+
+    /**
+     * Keeps tasks until drained.
+     */
+    static class QueueExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void drain() {
+            for (; ; ) {
+                Runnable task;
+                synchronized (this) {
+                    if (tasks.isEmpty()) {
+                        return;
+                    }
+                    task = tasks.remove(0);
+                }
+                task.run();
+            }
+        }
+    }
+
+    @After
+    public void clean() {
+        Transition.Repository.consume();
+    }
+
+    private static EasyFlow<StatefulContext> easyFlow(Executor executor) {
+        EasyFlow<StatefulContext> flow = FlowBuilder.EasyFlowBuilder.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(back).to(START)
+                )
+        );
+        return flow.executor(executor);
+    }
+
+    private static StatefulContext started(Flow<StatefulContext> flow, QueueExecutor executor) {
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+        executor.drain();
+        return ctx;
+    }
+
+    @Test
+    public void shouldRejectWhenFlowIsFull() {
+        QueueExecutor executor = new QueueExecutor();
+        Backpressure backpressure = new Backpressure(2, 0, Backpressure.Overflow.REJECT);
+        EasyFlow<StatefulContext> flow = easyFlow(executor).backpressure(backpressure);
+
+        StatefulContext first = started(flow, executor);
+        StatefulContext second = started(flow, executor);
+        StatefulContext third = started(flow, executor);
+
+        assertEquals(TriggerResult.ACCEPTED, first.tryTrigger(next));
+        assertEquals(TriggerResult.ACCEPTED, second.tryTrigger(next));
+        assertEquals(TriggerResult.REJECTED_BACKPRESSURE, third.tryTrigger(next));
+        assertEquals(2, backpressure.getPending());
+
+        executor.drain();
+        assertEquals(0, backpressure.getPending());
+        assertEquals(TriggerResult.ACCEPTED, third.tryTrigger(next));
+        executor.drain();
+        assertEquals(STATE_1, third.getStateValue());
+    }
+
+    @Test
+    public void shouldRejectWhenContextIsFullWithoutChangingState() {
+        QueueExecutor executor = new QueueExecutor();
+        EnterFlow<StatefulContext> flow = FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(back).to(START)
+                )
+        );
+        flow.executor(executor).backpressure(new Backpressure(0, 1, Backpressure.Overflow.REJECT));
+
+        StatefulContext ctx = started(flow, executor);
+        StatefulContext other = started(flow, executor);
+
+        assertEquals(TriggerResult.ACCEPTED, ctx.tryTrigger(next));
+        assertEquals(TriggerResult.REJECTED_BACKPRESSURE, ctx.tryTrigger(back));
+        assertEquals(STATE_1, ctx.getStateValue());
+        assertEquals(TriggerResult.ACCEPTED, other.tryTrigger(next));
+
+        executor.drain();
+        assertEquals(TriggerResult.ACCEPTED, ctx.tryTrigger(back));
+        assertEquals(START, ctx.getStateValue());
+    }
+
+    @Test
+    public void shouldRunOnCallerWhenFull() {
+        QueueExecutor executor = new QueueExecutor();
+        final List<Thread> threads = new ArrayList<Thread>();
+        EasyFlow<StatefulContext> flow = easyFlow(executor)
+                .backpressure(new Backpressure(1, 0, Backpressure.Overflow.CALLER_RUNS));
+        flow.whenEvent(next, new ContextHandler<StatefulContext>() {
+            @Override
+            public void call(StatefulContext context) {
+                threads.add(Thread.currentThread());
+            }
+        });
+
+        StatefulContext first = started(flow, executor);
+        StatefulContext second = started(flow, executor);
+
+        assertEquals(TriggerResult.ACCEPTED, first.tryTrigger(next));
+        assertTrue(threads.isEmpty());
+        assertEquals(TriggerResult.ACCEPTED, second.tryTrigger(next));
+        assertEquals(1, threads.size());
+
+        executor.drain();
+        assertEquals(2, threads.size());
+        assertEquals(STATE_1, second.getStateValue());
+    }
+
+    @Test
+    public void shouldRejectAfterBlockingTimeout() {
+        QueueExecutor executor = new QueueExecutor();
+        EasyFlow<StatefulContext> flow = easyFlow(executor)
+                .backpressure(new Backpressure(1, 0, Backpressure.Overflow.BLOCK, 20, TimeUnit.MILLISECONDS));
+
+        StatefulContext first = started(flow, executor);
+        StatefulContext second = started(flow, executor);
+        assertEquals(TriggerResult.ACCEPTED, first.tryTrigger(next));
+
+        long start = System.nanoTime();
+        assertEquals(TriggerResult.REJECTED_BACKPRESSURE, second.tryTrigger(next));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void shouldBlockUntilPermitIsReleased() throws Exception {
+        final QueueExecutor executor = new QueueExecutor();
+        EasyFlow<StatefulContext> flow = easyFlow(executor)
+                .backpressure(new Backpressure(1, 0, Backpressure.Overflow.BLOCK, 10, TimeUnit.SECONDS));
+
+        StatefulContext first = started(flow, executor);
+        StatefulContext second = started(flow, executor);
+        assertEquals(TriggerResult.ACCEPTED, first.tryTrigger(next));
+
+        Thread drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                executor.drain();
+            }
+        });
+        drainer.start();
+        assertEquals(TriggerResult.ACCEPTED, second.tryTrigger(next));
+        drainer.join();
+        executor.drain();
+        assertEquals(STATE_1, second.getStateValue());
+    }
+
+    @Test
+    public void shouldReportExecutorRejection() {
+        final QueueExecutor executor = new QueueExecutor();
+        final boolean[] full = {false};
+        EasyFlow<StatefulContext> flow = easyFlow(new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                if (full[0]) {
+                    throw new RejectedExecutionException();
+                }
+                executor.execute(task);
+            }
+        });
+
+        StatefulContext ctx = started(flow, executor);
+        full[0] = true;
+        assertEquals(TriggerResult.REJECTED_BACKPRESSURE, ctx.tryTrigger(next));
+        assertEquals(START, ctx.getStateValue());
+    }
+
+    @Test
+    public void shouldNotRunTransitionRejectedThroughMailbox() {
+        final QueueExecutor executor = new QueueExecutor();
+        final boolean[] full = {false};
+        final AtomicInteger events = new AtomicInteger();
+        Backpressure backpressure = new Backpressure(1, 0, Backpressure.Overflow.REJECT);
+        EasyFlow<StatefulContext> flow = easyFlow(new MailboxExecutor(new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                if (full[0]) {
+                    throw new RejectedExecutionException();
+                }
+                executor.execute(task);
+            }
+        })).backpressure(backpressure);
+        flow.whenEvent(next, new ContextHandler<StatefulContext>() {
+            @Override
+            public void call(StatefulContext context) {
+                events.incrementAndGet();
+            }
+        });
+
+        StatefulContext ctx = started(flow, executor);
+        StatefulContext other = started(flow, executor);
+        full[0] = true;
+        assertEquals(TriggerResult.REJECTED_BACKPRESSURE, ctx.tryTrigger(next));
+        assertEquals(0, backpressure.getPending());
+
+        full[0] = false;
+        assertEquals(TriggerResult.ACCEPTED, ctx.tryTrigger(next));
+        executor.drain();
+        assertEquals(1, events.get());
+        assertEquals(STATE_1, ctx.getStateValue());
+        assertEquals(0, backpressure.getPending());
+
+        // capacity is still one
+        assertEquals(TriggerResult.ACCEPTED, ctx.tryTrigger(back));
+        assertEquals(TriggerResult.REJECTED_BACKPRESSURE, other.tryTrigger(next));
+        executor.drain();
+        assertEquals(START, ctx.getStateValue());
+    }
+
+    @Test
+    public void shouldReportEnterFlowExecutorRejection() {
+        final QueueExecutor executor = new QueueExecutor();
+        final boolean[] full = {false};
+        Backpressure backpressure = new Backpressure(1, 0, Backpressure.Overflow.REJECT);
+        EnterFlow<StatefulContext> flow = FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(back).to(START)
+                )
+        );
+        flow.executor(new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                if (full[0]) {
+                    throw new RejectedExecutionException();
+                }
+                executor.execute(task);
+            }
+        }).backpressure(backpressure);
+
+        StatefulContext ctx = started(flow, executor);
+        full[0] = true;
+        assertEquals(TriggerResult.REJECTED_BACKPRESSURE, ctx.tryTrigger(next));
+        assertEquals(START, ctx.getStateValue());
+        assertFalse(ctx.isTerminated());
+        assertEquals(0, backpressure.getPending());
+
+        full[0] = false;
+        assertEquals(TriggerResult.ACCEPTED, ctx.tryTrigger(next));
+        executor.drain();
+        assertEquals(STATE_1, ctx.getStateValue());
+    }
+
+    @Test
+    public void shouldNotRecordTransitionRejectedByEnterFlowExecutor() {
+        final QueueExecutor executor = new QueueExecutor();
+        final boolean[] full = {false};
+        FlightRecorder recorder = new FlightRecorder();
+        FlowMetrics metrics = new FlowMetrics();
+        EnterFlow<StatefulContext> flow = FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(back).to(START)
+                )
+        );
+        flow.executor(new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                if (full[0]) {
+                    throw new RejectedExecutionException();
+                }
+                executor.execute(task);
+            }
+        }).backpressure(new Backpressure(1, 0, Backpressure.Overflow.REJECT)).recorder(recorder).metrics(metrics);
+
+        StatefulContext ctx = started(flow, executor);
+        full[0] = true;
+        assertEquals(TriggerResult.REJECTED_BACKPRESSURE, ctx.tryTrigger(next));
+
+        assertTrue(recorder.dump(ctx).isEmpty());
+        assertEquals(0, metrics.snapshot().getTransitionCount(START, next));
+    }
+
+    @Test
+    public void shouldAcceptRejectedTriggerWhenContextMovedOn() throws Exception {
+        final QueueExecutor executor = new QueueExecutor();
+        final boolean[] full = {false};
+        final StatefulContext[] context = {null};
+        final TriggerResult[] moved = {null};
+        Backpressure backpressure = new Backpressure(2, 0, Backpressure.Overflow.REJECT);
+        EnterFlow<StatefulContext> flow = FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(back).to(START)
+                )
+        );
+        flow.executor(new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                if (full[0]) {
+                    // another trigger changes the context before the rejection is seen
+                    full[0] = false;
+                    moved[0] = context[0].tryTrigger(back);
+                    throw new RejectedExecutionException();
+                }
+                executor.execute(task);
+            }
+        }).backpressure(backpressure);
+
+        StatefulContext ctx = started(flow, executor);
+        context[0] = ctx;
+        full[0] = true;
+        assertEquals(TriggerResult.ACCEPTED, ctx.tryTrigger(next));
+        assertEquals(TriggerResult.ACCEPTED, moved[0]);
+
+        executor.drain();
+        assertTrue(ctx.isTerminated());
+        assertEquals(0, backpressure.getPending());
+        try {
+            ctx.getCompletion().get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ExecutionError);
+            assertTrue(e.getCause().getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void shouldQueueCallerRunsTriggerBehindRunningTasksOfContext() {
+        QueueExecutor executor = new QueueExecutor();
+        final List<StatefulContext> handled = new ArrayList<StatefulContext>();
+        EasyFlow<StatefulContext> flow = easyFlow(new MailboxExecutor(executor))
+                .backpressure(new Backpressure(0, 1, Backpressure.Overflow.CALLER_RUNS));
+        flow.whenEvent(next, new ContextHandler<StatefulContext>() {
+            @Override
+            public void call(StatefulContext context) {
+                handled.add(context);
+            }
+        });
+
+        StatefulContext ctx = started(flow, executor);
+        assertEquals(TriggerResult.ACCEPTED, ctx.tryTrigger(next));
+        assertEquals(TriggerResult.ACCEPTED, ctx.tryTrigger(next));
+        assertTrue(handled.isEmpty());
+
+        executor.drain();
+        assertEquals(2, handled.size());
+        assertEquals(STATE_1, ctx.getStateValue());
+    }
+
+    @Test
+    public void shouldEnterCallerRunsStateInOrderWithTasksOfContext() {
+        QueueExecutor executor = new QueueExecutor();
+        final List<StateEnum> entered = new ArrayList<StateEnum>();
+        EnterFlow<StatefulContext> flow = FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(back).to(START)
+                )
+        );
+        flow.whenEnter(new StateHandler<StatefulContext>() {
+            @Override
+            public void call(StateEnum state, StatefulContext context) {
+                entered.add(state);
+            }
+        });
+        flow.executor(new MailboxExecutor(executor))
+                .backpressure(new Backpressure(0, 1, Backpressure.Overflow.CALLER_RUNS));
+
+        StatefulContext ctx = started(flow, executor);
+        entered.clear();
+        assertEquals(TriggerResult.ACCEPTED, ctx.tryTrigger(next));
+        assertEquals(TriggerResult.ACCEPTED, ctx.tryTrigger(back));
+        assertTrue(entered.isEmpty());
+
+        executor.drain();
+        assertEquals(Arrays.<StateEnum>asList(STATE_1, START), entered);
+    }
+
+    @Test
+    public void shouldRejectCallerRunsWithContextExecutorWithoutMailbox() {
+        final QueueExecutor executor = new QueueExecutor();
+        ContextExecutor serial = new ContextExecutor() {
+            @Override
+            public void execute(StatefulContext context, Runnable task) {
+                executor.execute(task);
+            }
+
+            @Override
+            public void execute(Runnable task) {
+                executor.execute(task);
+            }
+        };
+        Backpressure backpressure = new Backpressure(1, 0, Backpressure.Overflow.CALLER_RUNS);
+        EasyFlow<StatefulContext> easyFlow = easyFlow(serial).backpressure(backpressure);
+        EnterFlow<StatefulContext> enterFlow = FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(back).to(START)
+                )
+        );
+        enterFlow.executor(serial).backpressure(backpressure);
+
+        StatefulContext easy = started(easyFlow, executor);
+        StatefulContext enter = started(enterFlow, executor);
+        assertEquals(TriggerResult.ACCEPTED, easy.tryTrigger(next));
+        assertEquals(TriggerResult.REJECTED_BACKPRESSURE, easy.tryTrigger(next));
+        assertEquals(TriggerResult.REJECTED_BACKPRESSURE, enter.tryTrigger(next));
+        assertEquals(START, enter.getStateValue());
+
+        executor.drain();
+        assertEquals(STATE_1, easy.getStateValue());
+        assertEquals(0, backpressure.getPending());
+    }
+}
@@ -0,0 +1,126 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.err.DefinitionError;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static au.com.ds.ef.DefaultTransitionsTest.Events.cancel;
+import static au.com.ds.ef.DefaultTransitionsTest.Events.err;
+import static au.com.ds.ef.DefaultTransitionsTest.Events.next;
+import static au.com.ds.ef.DefaultTransitionsTest.Events.retry;
+import static au.com.ds.ef.DefaultTransitionsTest.States.A;
+import static au.com.ds.ef.DefaultTransitionsTest.States.B;
+import static au.com.ds.ef.DefaultTransitionsTest.States.C;
+import static au.com.ds.ef.DefaultTransitionsTest.States.CANCELLED;
+import static au.com.ds.ef.DefaultTransitionsTest.States.END;
+import static au.com.ds.ef.DefaultTransitionsTest.States.FAILED;
+import static au.com.ds.ef.DefaultTransitionsTest.States.START;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DefaultTransitionsTest {
+    public enum States implements StateEnum {
+        START, A, B, C, END, FAILED, CANCELLED
+    }
+
+    public enum Events implements EventEnum {
+        next, retry, err, cancel
+    }
+
+    @After
+    public void clean() {
+        ToHolder.resetDefaultTransitions();
+        Transition.Repository.consume();
+    }
+
+    @Test
+    public void shouldShareDefaultsBetweenStates() {
+        FlowScope s = new FlowScope();
+        List<Transition> defaults = Arrays.asList(
+                s.on(err).finish(FAILED),
+                s.on(cancel).finish(CANCELLED)
+        );
+        FlowDefinition.Builder builder = s.from(START, defaults);
+
+        Transition tree = s.on(next).to(A).transit(
+                s.on(next).to(B).transit(
+                        s.on(err).to(C).transit(
+                                s.on(retry).to(B),
+                                s.on(next).finish(END)
+                        )
+                )
+        );
+        // defaults are not copied to states
+        assertEquals(defaults.size() + 5, s.repository().created().size());
+
+        FlowDefinition definition = builder.transit(tree);
+
+        for (StateEnum state : Arrays.asList(START, A, B, C)) {
+            for (Transition t : definition.getAvailableTransitions(state)) {
+                assertSame(state, t.getStateFrom());
+            }
+        }
+        Transition failing = definition.getAvailableTransitions(A).get(1);
+        assertSame(FAILED, failing.getStateTo());
+        assertSame(failing, definition.getAvailableTransitions(A).get(1));
+        assertEquals(3, definition.getAvailableTransitions(A).size());
+        assertEquals(4, definition.getAvailableTransitions(C).size());
+
+        EasyFlow<StatefulContext> flow = definition.easyFlow();
+        flow.executor(new InlineExecutor());
+
+        StatefulContext overridden = new StatefulContext();
+        flow.start(overridden);
+        overridden.trigger(next);
+        overridden.trigger(next);
+        overridden.trigger(err);
+        assertEquals(C, overridden.getStateValue());
+
+        StatefulContext cancelled = new StatefulContext();
+        flow.start(cancelled);
+        cancelled.trigger(next);
+        cancelled.trigger(next);
+        cancelled.trigger(err);
+        cancelled.trigger(cancel);
+        assertEquals(CANCELLED, cancelled.getStateValue());
+        assertTrue(cancelled.isTerminated());
+    }
+
+    @Test
+    public void shouldApplyThreadLocalDefaults() {
+        List<Transition> defaults = Arrays.asList(
+                ToHolder.on(err).finish(FAILED)
+        );
+
+        EasyFlow<StatefulContext> flow = FlowBuilder.EasyFlowBuilder.from(START, defaults).transit(
+                ToHolder.on(next).to(A).transit(
+                        ToHolder.on(next).finish(END)
+                )
+        );
+        flow.executor(new InlineExecutor());
+
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+        ctx.trigger(next);
+        ctx.trigger(err);
+        assertEquals(FAILED, ctx.getStateValue());
+    }
+
+    @Test(expected = DefinitionError.class)
+    public void shouldValidateCircularDefaults() {
+        FlowScope s = new FlowScope();
+        List<Transition> defaults = Arrays.asList(
+                s.on(retry).to(A)
+        );
+
+        s.from(START, defaults).transit(
+                s.on(next).to(A).transit(
+                        s.on(next).finish(END)
+                )
+        );
+    }
+}
@@ -0,0 +1,135 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.BatchHandler;
+import au.com.ds.ef.call.ExecutionErrorHandler;
+import au.com.ds.ef.err.ExecutionError;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static au.com.ds.ef.EnterBatchTest.Events.persisted;
+import static au.com.ds.ef.EnterBatchTest.Events.save;
+import static au.com.ds.ef.EnterBatchTest.States.DONE;
+import static au.com.ds.ef.EnterBatchTest.States.SAVING;
+import static au.com.ds.ef.EnterBatchTest.States.START;
+import static au.com.ds.ef.ToHolder.on;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EnterBatchTest {
+    public enum States implements StateEnum {
+        START, SAVING, DONE
+    }
+
+    public enum Events implements EventEnum {
+        save, persisted
+    }
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void clean() {
+        Transition.Repository.consume();
+        executor.shutdownNow();
+    }
+
+    private static EnterFlow<StatefulContext> flow() {
+        return FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(save).to(SAVING).transit(
+                        on(persisted).finish(DONE)
+                )
+        );
+    }
+
+    private static class Batches implements BatchHandler<StatefulContext> {
+        final List<List<StatefulContext>> batches = new CopyOnWriteArrayList<List<StatefulContext>>();
+
+        @Override
+        public void call(List<StatefulContext> contexts) throws Exception {
+            batches.add(Lists.newArrayList(contexts));
+        }
+    }
+
+    private static List<StatefulContext> save(EnterFlow<StatefulContext> flow, int count) {
+        List<StatefulContext> contexts = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            StatefulContext ctx = new StatefulContext();
+            contexts.add(ctx);
+            flow.start(ctx);
+            ctx.trigger(save);
+        }
+        return contexts;
+    }
+
+    @Test
+    public void shouldHandleFullBatchesAtOnce() throws Exception {
+        Batches batches = new Batches();
+        EnterFlow<StatefulContext> flow = flow();
+        flow
+                .executor(executor)
+                .whenEnterBatch(SAVING, 3, 1, TimeUnit.MINUTES, batches, persisted);
+
+        List<StatefulContext> contexts = save(flow, 6);
+
+        List<StateEnum> states = Flow.allCompleted(contexts).get(5, TimeUnit.SECONDS);
+        assertEquals(6, states.size());
+        assertEquals(DONE, states.get(5));
+        assertEquals(2, batches.batches.size());
+        assertEquals(3, batches.batches.get(0).size());
+        assertEquals(3, batches.batches.get(1).size());
+    }
+
+    @Test
+    public void shouldHandleBatchAfterDelay() throws Exception {
+        Batches batches = new Batches();
+        EnterFlow<StatefulContext> flow = flow();
+        flow
+                .executor(executor)
+                .whenEnterBatch(SAVING, 100, 50, TimeUnit.MILLISECONDS, batches, persisted);
+
+        List<StatefulContext> contexts = save(flow, 2);
+
+        Flow.allCompleted(contexts).get(5, TimeUnit.SECONDS);
+        assertEquals(1, batches.batches.size());
+        assertTrue(batches.batches.get(0).containsAll(contexts));
+    }
+
+    @Test
+    public void shouldReportFailedBatchToEachContext() throws Exception {
+        final SQLException failure = new SQLException("deadlock");
+        final List<ExecutionError> errors = new CopyOnWriteArrayList<ExecutionError>();
+        EnterFlow<StatefulContext> flow = flow();
+        flow
+                .executor(executor)
+                .whenEnterBatch(SAVING, 2, 1, TimeUnit.MINUTES, new BatchHandler<StatefulContext>() {
+                    @Override
+                    public void call(List<StatefulContext> contexts) throws Exception {
+                        throw failure;
+                    }
+                }, persisted)
+                .whenError(new ExecutionErrorHandler<StatefulContext>() {
+                    @Override
+                    public void call(ExecutionError error, StatefulContext context) {
+                        errors.add(error);
+                    }
+                });
+
+        List<StatefulContext> contexts = save(flow, 2);
+
+        List<StateEnum> states = Flow.allTerminated(contexts).get(5, TimeUnit.SECONDS);
+        assertNull(states.get(0));
+        assertNull(states.get(1));
+        assertEquals(2, errors.size());
+        assertSame(failure, errors.get(0).getCause());
+        assertEquals(SAVING, errors.get(1).getState());
+    }
+}
@@ -0,0 +1,114 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.ContextHandler;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static au.com.ds.ef.FlightRecorderTest.Events.back;
+import static au.com.ds.ef.FlightRecorderTest.Events.next;
+import static au.com.ds.ef.FlightRecorderTest.States.START;
+import static au.com.ds.ef.FlightRecorderTest.States.STATE_1;
+import static au.com.ds.ef.ToHolder.on;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlightRecorderTest {
+    public enum States implements StateEnum {
+        START, STATE_1
+    }
+
+    public enum Events implements EventEnum {
+        next, back
+    }
+
+    @After
+    public void clean() {
+        Transition.Repository.consume();
+    }
+
+    private static EasyFlow<StatefulContext> easyFlow(FlightRecorder recorder) {
+        EasyFlow<StatefulContext> flow = FlowBuilder.EasyFlowBuilder.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(back).to(START)
+                )
+        );
+        return flow.executor(new InlineExecutor()).recorder(recorder);
+    }
+
+    @Test
+    public void shouldKeepRecentTransitions() {
+        FlightRecorder recorder = new FlightRecorder(4, 0);
+        EasyFlow<StatefulContext> flow = easyFlow(recorder);
+
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+        for (int i = 0; i < 5; i++) {
+            ctx.trigger(next);
+            ctx.trigger(back);
+        }
+
+        List<FlightRecorder.Entry> entries = recorder.dump();
+        assertEquals(4, entries.size());
+        FlightRecorder.Entry last = entries.get(3);
+        assertEquals(STATE_1, last.getStateFrom());
+        assertEquals(back, last.getEvent());
+        assertEquals(START, last.getStateTo());
+        assertEquals(ctx.getIdNumber(), last.getContextId());
+        assertEquals(Thread.currentThread().getId(), last.getThreadId());
+        assertTrue(entries.get(0).getNanoTime() <= last.getNanoTime());
+    }
+
+    @Test
+    public void shouldKeepTransitionsPerContext() {
+        FlightRecorder recorder = new FlightRecorder(2, 8);
+        EasyFlow<StatefulContext> flow = easyFlow(recorder);
+
+        StatefulContext first = new StatefulContext();
+        StatefulContext second = new StatefulContext();
+        flow.start(first);
+        flow.start(second);
+        first.trigger(next);
+        first.trigger(back);
+        second.trigger(next);
+        second.trigger(back);
+        second.trigger(next);
+
+        assertEquals(2, recorder.dump(first).size());
+        assertEquals(3, recorder.dump(second).size());
+        assertEquals(2, recorder.dump().size());
+    }
+
+    @Test
+    public void shouldRecordEnterFlowAndDumpOnError() {
+        FlightRecorder recorder = new FlightRecorder();
+        EnterFlow<StatefulContext> flow = FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(back).to(START)
+                )
+        );
+        flow
+                .executor(new InlineExecutor())
+                .recorder(recorder)
+                .whenEnter(STATE_1, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) throws Exception {
+                        throw new IllegalStateException("boom");
+                    }
+                });
+
+        StatefulContext other = new StatefulContext();
+        StatefulContext ctx = new StatefulContext();
+        flow.start(other);
+        flow.start(ctx);
+        other.trigger(next);
+        ctx.trigger(next);
+
+        assertTrue(ctx.isTerminated());
+        List<FlightRecorder.Entry> entries = recorder.dump(ctx);
+        assertEquals(1, entries.size());
+        assertEquals(START, entries.get(0).getStateFrom());
+        assertEquals(STATE_1, entries.get(0).getStateTo());
+    }
+}
@@ -0,0 +1,90 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.ContextHandler;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static au.com.ds.ef.FlowDefinitionTest.Events.back;
+import static au.com.ds.ef.FlowDefinitionTest.Events.next;
+import static au.com.ds.ef.FlowDefinitionTest.States.START;
+import static au.com.ds.ef.FlowDefinitionTest.States.STATE_1;
+import static au.com.ds.ef.ToHolder.on;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class FlowDefinitionTest {
+    public enum States implements StateEnum {
+        START, STATE_1
+    }
+
+    public enum Events implements EventEnum {
+        next, back
+    }
+
+    @After
+    public void clean() {
+        Transition.Repository.consume();
+    }
+
+    private static ContextHandler<StatefulContext> counter(final AtomicInteger count) {
+        return new ContextHandler<StatefulContext>() {
+            @Override
+            public void call(StatefulContext context) throws Exception {
+                count.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void shouldShareDefinitionBetweenFlows() {
+        FlowDefinition definition = FlowDefinition.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(back).to(START)
+                )
+        );
+
+        AtomicInteger easyCount = new AtomicInteger();
+        AtomicInteger enterCount = new AtomicInteger();
+        EasyFlow<StatefulContext> easy = definition.easyFlow();
+        easy.executor(new InlineExecutor()).whenEnter(STATE_1, counter(easyCount));
+        EnterFlow<StatefulContext> enter = definition.enterFlow();
+        enter.executor(new InlineExecutor()).whenEnter(STATE_1, counter(enterCount));
+
+        StatefulContext first = new StatefulContext();
+        StatefulContext second = new StatefulContext();
+        easy.start(first);
+        enter.start(second);
+        first.trigger(next);
+        first.trigger(back);
+        first.trigger(next);
+        second.trigger(next);
+
+        assertEquals(2, easyCount.get());
+        assertEquals(1, enterCount.get());
+        assertEquals(STATE_1, first.getStateValue());
+        assertEquals(STATE_1, second.getStateValue());
+        assertSame(definition, easy.getDefinition());
+        assertSame(definition, enter.getDefinition());
+        assertEquals(1, definition.getAvailableTransitions(START).size());
+    }
+
+    @Test
+    public void shouldExposeDefinitionOfBuiltFlow() {
+        EasyFlow<StatefulContext> flow = FlowBuilder.EasyFlowBuilder.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(back).to(START)
+                )
+        );
+
+        FlowDefinition definition = flow.getDefinition();
+        assertSame(START, definition.getStartState());
+
+        EasyFlow<StatefulContext> copy = definition.easyFlow();
+        StatefulContext ctx = new StatefulContext();
+        copy.executor(new InlineExecutor()).start(ctx);
+        ctx.trigger(next);
+        assertEquals(STATE_1, ctx.getStateValue());
+    }
+}
@@ -0,0 +1,102 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.log.FlowLogger;
+import au.com.ds.ef.log.FlowLoggers;
+import au.com.ds.ef.log.Slf4jFlowLogger;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static au.com.ds.ef.FlowLoggerTest.Events.event_1;
+import static au.com.ds.ef.FlowLoggerTest.States.START;
+import static au.com.ds.ef.FlowLoggerTest.States.STATE_1;
+import static au.com.ds.ef.ToHolder.on;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlowLoggerTest {
+    public enum States implements StateEnum {
+        START, STATE_1
+    }
+
+    public enum Events implements EventEnum {
+        event_1
+    }
+
+    static class RecordingLogger implements FlowLogger {
+        final boolean enabled;
+        final List<String> messages = new ArrayList<String>();
+
+        RecordingLogger(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return enabled;
+        }
+
+        @Override
+        public void info(String message, Object... o) {
+            messages.add(String.format(message, o));
+        }
+
+        @Override
+        public void error(String message, Throwable e) {
+        }
+    }
+
+    static class CountingContext extends StatefulContext {
+        private static final long serialVersionUID = 7222409032879146670L;
+
+        int formatted;
+
+        @Override
+        public String toString() {
+            formatted++;
+            return super.toString();
+        }
+    }
+
+    @After
+    public void clean() {
+        Transition.Repository.consume();
+    }
+
+    private static void run(FlowLogger logger, StatefulContext ctx) {
+        EasyFlow<StatefulContext> flow = FlowBuilder.EasyFlowBuilder.from(START).transit(
+                on(event_1).finish(STATE_1)
+        );
+        flow.executor(new InlineExecutor()).logger(logger).trace();
+
+        flow.start(ctx);
+        ctx.trigger(event_1);
+    }
+
+    @Test
+    public void shouldNotFormatWhenInfoDisabled() {
+        RecordingLogger logger = new RecordingLogger(false);
+        CountingContext ctx = new CountingContext();
+        run(logger, ctx);
+
+        assertTrue(logger.messages.isEmpty());
+        assertEquals(0, ctx.formatted);
+    }
+
+    @Test
+    public void shouldTraceWhenInfoEnabled() {
+        RecordingLogger logger = new RecordingLogger(true);
+        StatefulContext ctx = new StatefulContext();
+        run(logger, ctx);
+
+        assertTrue(logger.messages.contains("when enter STATE_1 for " + ctx + " <<<"));
+        assertTrue(logger.messages.contains("terminating context " + ctx));
+    }
+
+    @Test
+    public void shouldBindSlf4jDirectly() {
+        assertTrue(FlowLoggers.getDefault() instanceof Slf4jFlowLogger);
+    }
+}
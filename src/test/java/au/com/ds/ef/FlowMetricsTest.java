@@ -0,0 +1,139 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.ContextHandler;
+import org.junit.After;
+import org.junit.Test;
+
+import static au.com.ds.ef.FlowMetricsTest.Events.event_1;
+import static au.com.ds.ef.FlowMetricsTest.Events.event_2;
+import static au.com.ds.ef.FlowMetricsTest.States.START;
+import static au.com.ds.ef.FlowMetricsTest.States.STATE_1;
+import static au.com.ds.ef.FlowMetricsTest.States.STATE_2;
+import static au.com.ds.ef.ToHolder.on;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlowMetricsTest {
+    public enum States implements StateEnum {
+        START, STATE_1, STATE_2
+    }
+
+    public enum Events implements EventEnum {
+        event_1, event_2
+    }
+
+    @After
+    public void clean() {
+        Transition.Repository.consume();
+    }
+
+    private static final ContextHandler<StatefulContext> SLOW = new ContextHandler<StatefulContext>() {
+        @Override
+        public void call(StatefulContext context) throws Exception {
+            Thread.sleep(2);
+        }
+    };
+
+    @Test
+    public void shouldRecordEasyFlow() {
+        FlowMetrics metrics = new FlowMetrics();
+        EasyFlow<StatefulContext> flow = FlowBuilder.EasyFlowBuilder.from(START).transit(
+                on(event_1).to(STATE_1).transit(
+                        on(event_2).finish(STATE_2)
+                )
+        );
+        flow
+                .executor(new InlineExecutor())
+                .metrics(metrics)
+                .whenEnter(STATE_1, SLOW);
+
+        for (int i = 0; i < 3; i++) {
+            StatefulContext ctx = new StatefulContext();
+            flow.start(ctx);
+            ctx.trigger(event_1);
+            ctx.trigger(event_2);
+        }
+
+        FlowMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.getTransitionCount(START, event_1));
+        assertEquals(3, snapshot.getTransitionCount(STATE_1, event_2));
+        assertEquals(0, snapshot.getTransitionCount(START, event_2));
+
+        assertEquals(3, snapshot.getEnterTime(STATE_1).getCount());
+        assertTrue(snapshot.getEnterTime(STATE_1).getMeanNanos() >= 2000000);
+        assertEquals(3, snapshot.getDwellTime(STATE_1).getCount());
+        assertEquals(3, snapshot.getLeaveTime(START).getCount());
+        assertEquals(3, snapshot.getEventTime(event_2).getCount());
+        assertEquals(3, snapshot.getQueueDelay(event_1).getCount());
+        assertEquals(3, snapshot.getFinalTime().getCount());
+    }
+
+    @Test
+    public void shouldRecordEnterFlow() {
+        FlowMetrics metrics = new FlowMetrics();
+        EnterFlow<StatefulContext> flow = FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(event_1).to(STATE_1).transit(
+                        on(event_2).finish(STATE_2)
+                )
+        );
+        flow
+                .executor(new InlineExecutor())
+                .metrics(metrics)
+                .whenEnter(STATE_1, SLOW);
+
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+        ctx.trigger(event_1);
+        ctx.trigger(event_2);
+
+        FlowMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getTransitionCount(START, event_1));
+        assertEquals(1, snapshot.getTransitionCount(STATE_1, event_2));
+        assertEquals(1, snapshot.getEnterTime(STATE_1).getCount());
+        assertTrue(snapshot.getDwellTime(STATE_1).getMeanNanos() >= 2000000);
+        assertEquals(1, snapshot.getQueueDelay(event_2).getCount());
+        assertEquals(0, snapshot.getLeaveTime(START).getCount());
+    }
+
+    @Test
+    public void shouldComputePercentilesFromBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(5000);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(99 * 100 + 5000, snapshot.getTotalNanos());
+        assertEquals(127, snapshot.getPercentileNanos(0.5));
+        assertEquals(127, snapshot.getPercentileNanos(0.99));
+        assertEquals(8191, snapshot.getPercentileNanos(1));
+        assertEquals(99, snapshot.getBucketCount(LatencyHistogram.bucket(100)));
+    }
+
+    @Test
+    public void shouldSumHistogramRecordedByManyThreads() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(100);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(40000, snapshot.getCount());
+        assertEquals(40000 * 100, snapshot.getTotalNanos());
+        assertEquals(40000, snapshot.getBucketCount(LatencyHistogram.bucket(100)));
+    }
+}
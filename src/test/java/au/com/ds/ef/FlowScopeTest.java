@@ -0,0 +1,110 @@
+package au.com.ds.ef;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static au.com.ds.ef.FlowScopeTest.Events.a;
+import static au.com.ds.ef.FlowScopeTest.Events.done;
+import static au.com.ds.ef.FlowScopeTest.Events.err;
+import static au.com.ds.ef.FlowScopeTest.Events.next;
+import static au.com.ds.ef.FlowScopeTest.Events.sf;
+import static au.com.ds.ef.FlowScopeTest.States.A;
+import static au.com.ds.ef.FlowScopeTest.States.B;
+import static au.com.ds.ef.FlowScopeTest.States.END;
+import static au.com.ds.ef.FlowScopeTest.States.END_ERR;
+import static au.com.ds.ef.FlowScopeTest.States.SF;
+import static au.com.ds.ef.FlowScopeTest.States.START;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlowScopeTest {
+    public enum States implements StateEnum {
+        START, A, SF, B, END, END_ERR
+    }
+
+    public enum Events implements EventEnum {
+        a, sf, next, done, err
+    }
+
+    @After
+    public void clean() {
+        Transition.Repository.consume();
+    }
+
+    private static FlowDefinition define() {
+        FlowScope s = new FlowScope();
+        List<Transition> defaults = Arrays.asList(
+                s.on(err).finish(END_ERR)
+        );
+
+        IncompleteTransition subFlow = s.subFlowFrom(SF, defaults).transit(
+                s.on(next).to(B).transit(
+                        s.emit(done)
+                )
+        );
+
+        return s.from(START, defaults).transit(
+                s.on(a).to(A).transit(
+                        s.on(sf).subFlow(subFlow).transit(
+                                s.on(done).finish(END)
+                        )
+                )
+        );
+    }
+
+    private static void assertDefinition(FlowDefinition definition) {
+        assertEquals(2, definition.getAvailableTransitions(START).size());
+        assertEquals(2, definition.getAvailableTransitions(SF).size());
+        List<EventEnum> events = new ArrayList<EventEnum>();
+        for (Transition t : definition.getAvailableTransitions(B)) {
+            events.add(t.getEvent());
+        }
+        assertTrue(events.contains(done));
+        assertTrue(events.contains(err));
+    }
+
+    @Test
+    public void shouldBuildWithoutThreadLocals() {
+        FlowDefinition definition = define();
+        assertDefinition(definition);
+        assertTrue(Transition.Repository.consume().isEmpty());
+
+        StatefulContext ctx = new StatefulContext();
+        EasyFlow<StatefulContext> flow = definition.easyFlow();
+        flow.executor(new InlineExecutor()).start(ctx);
+        ctx.trigger(a);
+        ctx.trigger(sf);
+        ctx.trigger(next);
+        ctx.trigger(done);
+        assertEquals(END, ctx.getStateValue());
+    }
+
+    @Test
+    public void shouldBuildInParallel() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<FlowDefinition>> futures = new ArrayList<Future<FlowDefinition>>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(pool.submit(new Callable<FlowDefinition>() {
+                    @Override
+                    public FlowDefinition call() {
+                        return define();
+                    }
+                }));
+            }
+            for (Future<FlowDefinition> future : futures) {
+                assertDefinition(future.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
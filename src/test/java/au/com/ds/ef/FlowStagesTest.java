@@ -0,0 +1,170 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.ContextHandler;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static au.com.ds.ef.FlowStagesTest.Events.approve;
+import static au.com.ds.ef.FlowStagesTest.Events.charge;
+import static au.com.ds.ef.FlowStagesTest.Events.validate;
+import static au.com.ds.ef.FlowStagesTest.States.CHARGING;
+import static au.com.ds.ef.FlowStagesTest.States.DONE;
+import static au.com.ds.ef.FlowStagesTest.States.START;
+import static au.com.ds.ef.FlowStagesTest.States.VALIDATING;
+import static au.com.ds.ef.ToHolder.on;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlowStagesTest {
+    public enum States implements StateEnum {
+        START, VALIDATING, CHARGING, DONE
+    }
+
+    public enum Events implements EventEnum {
+        validate, charge, approve
+    }
+
+    private final ExecutorService fast = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("fast-%d").build());
+    private final ExecutorService slow = Executors.newFixedThreadPool(2,
+            new ThreadFactoryBuilder().setNameFormat("slow-%d").build());
+
+    @After
+    public void clean() {
+        Transition.Repository.consume();
+        fast.shutdownNow();
+        slow.shutdownNow();
+    }
+
+    private static ContextHandler<StatefulContext> triggering(final EventEnum event, final Map<StateEnum, String> threads,
+                                                             final StateEnum state) {
+        return new ContextHandler<StatefulContext>() {
+            @Override
+            public void call(StatefulContext context) throws Exception {
+                threads.put(state, Thread.currentThread().getName());
+                context.trigger(event);
+            }
+        };
+    }
+
+    private static EasyFlow<StatefulContext> easyFlow(Executor executor, Executor charging,
+                                                      final Map<StateEnum, String> threads) {
+        EasyFlow<StatefulContext> flow = FlowBuilder.EasyFlowBuilder.from(START).transit(
+                on(validate).to(VALIDATING).transit(
+                        on(charge).to(CHARGING).transit(
+                                on(approve).finish(DONE)
+                        )
+                )
+        );
+        return flow
+                .executor(executor)
+                .stage(charging, CHARGING)
+                .whenEnter(START, triggering(validate, threads, START))
+                .whenEnter(VALIDATING, triggering(charge, threads, VALIDATING))
+                .whenEnter(CHARGING, triggering(approve, threads, CHARGING))
+                .whenEnter(DONE, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) throws Exception {
+                        threads.put(DONE, Thread.currentThread().getName());
+                    }
+                });
+    }
+
+    @Test
+    public void shouldEnterStatesOnExecutorsOfTheirStages() throws Exception {
+        Map<StateEnum, String> threads = new ConcurrentHashMap<StateEnum, String>();
+        EasyFlow<StatefulContext> flow = easyFlow(fast, slow, threads);
+
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+
+        assertEquals(DONE, ctx.getCompletion().get(5, TimeUnit.SECONDS));
+        assertTrue(threads.get(VALIDATING).startsWith("fast-"));
+        assertTrue(threads.get(CHARGING).startsWith("slow-"));
+        assertTrue(threads.get(DONE).startsWith("fast-"));
+    }
+
+    @Test
+    public void shouldHopBetweenStagesWithSingleHop() throws Exception {
+        Map<StateEnum, String> threads = new ConcurrentHashMap<StateEnum, String>();
+        EasyFlow<StatefulContext> flow = easyFlow(fast, slow, threads).singleHop();
+
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+
+        assertEquals(DONE, ctx.getCompletion().get(5, TimeUnit.SECONDS));
+        assertTrue(threads.get(VALIDATING).startsWith("fast-"));
+        assertTrue(threads.get(CHARGING).startsWith("slow-"));
+        assertTrue(threads.get(DONE).startsWith("fast-"));
+    }
+
+    @Test
+    public void shouldHandOffContextsBetweenMailboxStages() throws Exception {
+        Map<StateEnum, String> threads = new ConcurrentHashMap<StateEnum, String>();
+        EasyFlow<StatefulContext> flow = easyFlow(new MailboxExecutor(fast), new MailboxExecutor(slow), threads);
+
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+
+        assertEquals(DONE, ctx.getCompletion().get(5, TimeUnit.SECONDS));
+        assertTrue(threads.get(VALIDATING).startsWith("fast-"));
+        assertTrue(threads.get(CHARGING).startsWith("slow-"));
+        assertTrue(threads.get(DONE).startsWith("fast-"));
+    }
+
+    @Test
+    public void shouldNotStarveOtherStatesWhileStageIsBusy() throws Exception {
+        final CountDownLatch gateway = new CountDownLatch(1);
+        final CountDownLatch validated = new CountDownLatch(10);
+        EnterFlow<StatefulContext> flow = FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(validate).to(VALIDATING).transit(
+                        on(charge).to(CHARGING).transit(
+                                on(approve).finish(DONE)
+                        )
+                )
+        );
+        flow
+                .executor(fast)
+                .stage(slow, CHARGING)
+                .whenEnter(VALIDATING, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) throws Exception {
+                        validated.countDown();
+                        context.trigger(charge);
+                    }
+                })
+                .whenEnter(CHARGING, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) throws Exception {
+                        gateway.await();
+                        context.trigger(approve);
+                    }
+                });
+
+        StatefulContext[] contexts = new StatefulContext[10];
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = new StatefulContext();
+            flow.start(contexts[i]);
+            contexts[i].trigger(validate);
+        }
+
+        // both slow threads are blocked, validation still runs for all contexts
+        assertTrue(validated.await(5, TimeUnit.SECONDS));
+        assertFalse(contexts[0].isTerminated());
+
+        gateway.countDown();
+        for (StatefulContext ctx : contexts) {
+            assertEquals(DONE, ctx.getCompletion().get(5, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package au.com.ds.ef;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static au.com.ds.ef.FlowTimerTest.Events.pay;
+import static au.com.ds.ef.FlowTimerTest.Events.proceed;
+import static au.com.ds.ef.FlowTimerTest.Events.timeout;
+import static au.com.ds.ef.FlowTimerTest.States.DONE;
+import static au.com.ds.ef.FlowTimerTest.States.EXPIRED;
+import static au.com.ds.ef.FlowTimerTest.States.START;
+import static au.com.ds.ef.FlowTimerTest.States.WAITING_FOR_PAYMENT;
+import static au.com.ds.ef.ToHolder.on;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlowTimerTest {
+    public enum States implements StateEnum {
+        START, WAITING_FOR_PAYMENT, DONE, EXPIRED
+    }
+
+    public enum Events implements EventEnum {
+        proceed, pay, timeout
+    }
+
+    private final FlowTimer timer = new FlowTimer(5, TimeUnit.MILLISECONDS, 64);
+
+    @After
+    public void clean() {
+        timer.stop();
+        Transition.Repository.consume();
+    }
+
+    private EnterFlow<StatefulContext> flow() {
+        EnterFlow<StatefulContext> flow = FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(proceed).to(WAITING_FOR_PAYMENT).transit(
+                        on(pay).finish(DONE),
+                        on(timeout).finish(EXPIRED)
+                )
+        );
+
+        return flow
+                .executor(new InlineExecutor())
+                .timer(timer)
+                .timeout(WAITING_FOR_PAYMENT, 30, TimeUnit.MILLISECONDS, timeout);
+    }
+
+    @Test
+    public void shouldRunAndCancelTimeouts() throws InterruptedException {
+        final CountDownLatch fired = new CountDownLatch(1);
+        final AtomicInteger cancelledRuns = new AtomicInteger();
+
+        FlowTimer.Timeout cancelled = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancelledRuns.incrementAndGet();
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+        FlowTimer.Timeout expired = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.countDown();
+            }
+        }, 500, TimeUnit.MILLISECONDS);
+
+        assertTrue(cancelled.cancel());
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+
+        assertTrue(expired.isExpired());
+        assertFalse(expired.cancel());
+        assertTrue(cancelled.isCancelled());
+        assertEquals(0, cancelledRuns.get());
+    }
+
+    @Test
+    public void shouldTriggerStateTimeout() throws Exception {
+        StatefulContext ctx = new StatefulContext();
+        flow().start(ctx);
+        ctx.trigger(proceed);
+
+        assertEquals(EXPIRED, ctx.getCompletion().get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldCancelTimeoutOnLeave() throws Exception {
+        StatefulContext ctx = new StatefulContext();
+        flow().start(ctx);
+        ctx.trigger(proceed);
+        ctx.trigger(pay);
+
+        Thread.sleep(60);
+        assertEquals(DONE, ctx.getCompletion().get());
+    }
+
+    @Test
+    public void shouldTriggerAfterDelay() throws Exception {
+        StatefulContext ctx = new StatefulContext();
+        flow().start(ctx);
+        ctx.trigger(proceed);
+        ctx.triggerAfter(pay, 5, TimeUnit.MILLISECONDS);
+
+        assertEquals(DONE, ctx.getCompletion().get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldCancelDelayedEventsOnTermination() {
+        StatefulContext ctx = new StatefulContext();
+        flow().start(ctx);
+
+        FlowTimer.Timeout delayed = ctx.triggerAfter(proceed, 1, TimeUnit.SECONDS);
+        ctx.stop();
+
+        assertTrue(delayed.isCancelled());
+    }
+}
@@ -0,0 +1,154 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.ContextHandler;
+import au.com.ds.ef.call.EventHandler;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static au.com.ds.ef.HandlerCollection.EventType;
+import static au.com.ds.ef.HandlerCollectionTest.Events.event_1;
+import static au.com.ds.ef.HandlerCollectionTest.Events.event_2;
+import static au.com.ds.ef.HandlerCollectionTest.States.START;
+import static au.com.ds.ef.HandlerCollectionTest.States.STATE_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HandlerCollectionTest {
+    public enum States implements StateEnum {
+        START, STATE_1
+    }
+
+    public enum Events implements EventEnum {
+        event_1, event_2
+    }
+
+    static class NamedState implements StateEnum {
+        private final String name;
+
+        NamedState(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+    }
+
+    private final List<String> calls = new ArrayList<String>();
+
+    @After
+    public void clean() {
+        Transition.Repository.consume();
+    }
+
+    private ContextHandler<StatefulContext> record(final String name) {
+        return new ContextHandler<StatefulContext>() {
+            @Override
+            public void call(StatefulContext context) {
+                calls.add(name);
+            }
+        };
+    }
+
+    private static TransitionTable table(StateEnum from, EventEnum event, StateEnum to) {
+        RegularTransition t = RegularTransition.createSingleTransition(event, to, true);
+        t.setStateFrom(from);
+        return new TransitionTable(Lists.<Transition>newArrayList(t));
+    }
+
+    @Test
+    public void shouldDispatchHandlersRegisteredBeforeAndAfterBinding() throws Exception {
+        HandlerCollection handlers = new HandlerCollection();
+        handlers.setHandler(EventType.STATE_ENTER, START, null, record("enter START"));
+        handlers.bind(table(START, event_1, STATE_1));
+        handlers.setHandler(EventType.STATE_LEAVE, START, null, record("leave START"));
+        handlers.setHandler(EventType.EVENT_TRIGGER, null, event_1, record("event_1"));
+        handlers.setHandler(EventType.ANY_EVENT_TRIGGER, null, null, new EventHandler<StatefulContext>() {
+            @Override
+            public void call(EventEnum event, StateEnum from, StateEnum to, StatefulContext context) {
+                calls.add("any " + event);
+            }
+        });
+
+        StatefulContext ctx = new StatefulContext();
+        handlers.callOnStateEntered(START, ctx);
+        handlers.callOnStateLeaved(START, ctx);
+        handlers.callOnEventTriggered(event_1, START, STATE_1, ctx);
+        handlers.callOnEventTriggered(event_2, START, STATE_1, ctx);
+        handlers.callOnStateEntered(STATE_1, ctx);
+
+        assertEquals(Lists.newArrayList("enter START", "leave START", "event_1", "any event_1", "any event_2"), calls);
+    }
+
+    @Test
+    public void shouldDispatchHandlersForStatesWithoutOrdinal() throws Exception {
+        StateEnum a = new NamedState("A");
+        StateEnum b = new NamedState("B");
+        StateEnum unknown = new NamedState("UNKNOWN");
+
+        HandlerCollection handlers = new HandlerCollection();
+        handlers.bind(table(a, event_1, b));
+        handlers.setHandler(EventType.STATE_ENTER, b, null, record("enter B"));
+        handlers.setHandler(EventType.STATE_ENTER, unknown, null, record("enter UNKNOWN"));
+
+        StatefulContext ctx = new StatefulContext();
+        handlers.callOnStateEntered(a, ctx);
+        handlers.callOnStateEntered(b, ctx);
+        handlers.callOnStateEntered(unknown, ctx);
+
+        assertEquals(Lists.newArrayList("enter B", "enter UNKNOWN"), calls);
+    }
+
+    @Test
+    public void shouldSwapHandlersWhileCalled() throws Exception {
+        final HandlerCollection handlers = new HandlerCollection();
+        handlers.bind(table(START, event_1, STATE_1));
+        final ContextHandler<StatefulContext> on = record("on");
+        final ContextHandler<StatefulContext> off = new ContextHandler<StatefulContext>() {
+            @Override
+            public void call(StatefulContext context) {
+            }
+        };
+        handlers.setHandler(EventType.STATE_ENTER, STATE_1, null, off);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                StatefulContext ctx = new StatefulContext();
+                try {
+                    while (running.get()) {
+                        handlers.callOnStateEntered(STATE_1, ctx);
+                    }
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        });
+        caller.start();
+
+        for (int i = 0; i < 1000; i++) {
+            handlers.setHandler(EventType.STATE_ENTER, STATE_1, null, i % 2 == 0 ? on : off);
+            handlers.setHandler(EventType.STATE_LEAVE, START, null, i % 2 == 0 ? off : null);
+        }
+        handlers.setHandler(EventType.STATE_ENTER, STATE_1, null, null);
+        running.set(false);
+        caller.join();
+        assertNull(failure.get());
+
+        calls.clear();
+        handlers.setHandler(EventType.STATE_ENTER, START, null, on);
+        StatefulContext ctx = new StatefulContext();
+        handlers.callOnStateEntered(STATE_1, ctx);
+        handlers.callOnStateEntered(START, ctx);
+        assertEquals(Lists.newArrayList("on"), calls);
+    }
+}
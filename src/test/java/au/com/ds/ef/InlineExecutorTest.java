@@ -0,0 +1,226 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.ContextHandler;
+import au.com.ds.ef.call.ExecutionErrorHandler;
+import au.com.ds.ef.err.ExecutionError;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static au.com.ds.ef.FlowBuilder.EasyFlowBuilder.from;
+import static au.com.ds.ef.InlineExecutorTest.Events.back;
+import static au.com.ds.ef.InlineExecutorTest.Events.done;
+import static au.com.ds.ef.InlineExecutorTest.Events.next;
+import static au.com.ds.ef.InlineExecutorTest.States.DONE;
+import static au.com.ds.ef.InlineExecutorTest.States.START;
+import static au.com.ds.ef.InlineExecutorTest.States.STATE_1;
+import static au.com.ds.ef.ToHolder.on;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class InlineExecutorTest {
+    public enum States implements StateEnum {
+        START, STATE_1, DONE
+    }
+
+    public enum Events implements EventEnum {
+        next, back, done
+    }
+
+    static class CountingContext extends StatefulContext {
+        private static final long serialVersionUID = 2036572318796114139L;
+
+        final int rounds;
+        int round;
+        int startDepth = -1;
+        int endDepth = -1;
+
+        CountingContext(int rounds) {
+            this.rounds = rounds;
+        }
+    }
+
+    private final ExecutorService threads = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    private static EasyFlow<CountingContext> pingPong() {
+        EasyFlow<CountingContext> flow =
+
+                from(START).transit(
+                        on(next).to(STATE_1).transit(
+                                on(back).to(START),
+                                on(done).finish(DONE)
+                        )
+                );
+
+        flow
+                .executor(new InlineExecutor())
+                .whenEnter(START, new ContextHandler<CountingContext>() {
+                    @Override
+                    public void call(CountingContext context) throws Exception {
+                        if (context.startDepth < 0) {
+                            context.startDepth = Thread.currentThread().getStackTrace().length;
+                        }
+                        context.trigger(next);
+                    }
+                })
+                .whenEnter(STATE_1, new ContextHandler<CountingContext>() {
+                    @Override
+                    public void call(CountingContext context) throws Exception {
+                        if (++context.round < context.rounds) {
+                            context.trigger(back);
+                        } else {
+                            context.endDepth = Thread.currentThread().getStackTrace().length;
+                            context.trigger(done);
+                        }
+                    }
+                });
+
+        return flow;
+    }
+
+    @Test
+    public void shouldRunQueuedTasksInOrder() {
+        final InlineExecutor executor = new InlineExecutor();
+        final StatefulContext ctx = new StatefulContext();
+        final List<String> order = new ArrayList<String>();
+
+        executor.execute(ctx, new Runnable() {
+            @Override
+            public void run() {
+                order.add("a");
+                executor.execute(ctx, new Runnable() {
+                    @Override
+                    public void run() {
+                        order.add("b");
+                        executor.execute(ctx, new Runnable() {
+                            @Override
+                            public void run() {
+                                order.add("d");
+                            }
+                        });
+                    }
+                });
+                executor.execute(ctx, new Runnable() {
+                    @Override
+                    public void run() {
+                        order.add("c");
+                    }
+                });
+            }
+        });
+
+        assertEquals(Lists.newArrayList("a", "b", "c", "d"), order);
+    }
+
+    @Test
+    public void shouldNotGrowStackWithTransitions() {
+        CountingContext ctx = new CountingContext(100000);
+        pingPong().start(ctx);
+
+        assertEquals(DONE, ctx.getStateValue());
+        assertEquals(ctx.startDepth, ctx.endDepth);
+    }
+
+    @Test
+    public void shouldRunContextsFromManyThreads() throws Exception {
+        final EasyFlow<CountingContext> flow = pingPong();
+
+        List<Future<CountingContext>> results = new ArrayList<Future<CountingContext>>();
+        for (int i = 0; i < 200; i++) {
+            results.add(threads.submit(new Callable<CountingContext>() {
+                @Override
+                public CountingContext call() {
+                    CountingContext ctx = new CountingContext(100);
+                    flow.start(ctx);
+                    return ctx;
+                }
+            }));
+        }
+
+        for (Future<CountingContext> result : results) {
+            CountingContext ctx = result.get();
+            assertEquals(DONE, ctx.getStateValue());
+            assertEquals(100, ctx.round);
+        }
+    }
+
+    @Test
+    public void shouldKeepContextSerialWhenErrorHandlerThrows() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final ContextHandler<StatefulContext> exclusive = new ContextHandler<StatefulContext>() {
+            @Override
+            public void call(StatefulContext context) throws Exception {
+                if (running.incrementAndGet() > 1) {
+                    overlaps.incrementAndGet();
+                }
+                Thread.yield();
+                running.decrementAndGet();
+            }
+        };
+        EasyFlow<StatefulContext> flow = from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(back).to(START)
+                )
+        );
+        flow
+                .executor(new InlineExecutor())
+                .whenEnter(START, exclusive)
+                .whenEnter(STATE_1, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) throws Exception {
+                        exclusive.call(context);
+                        throw new IllegalStateException("enter failed");
+                    }
+                })
+                .whenError(new ExecutionErrorHandler<StatefulContext>() {
+                    @Override
+                    public void call(ExecutionError error, StatefulContext context) {
+                        throw new IllegalStateException("error handler failed");
+                    }
+                });
+
+        final StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        for (int i = 0; i < 4; i++) {
+            results.add(threads.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    go.await();
+                    for (int round = 0; round < 20000; round++) {
+                        try {
+                            ctx.tryTrigger(round % 2 == 0 ? next : back);
+                        } catch (IllegalStateException e) {
+                            // thrown by the error handler on the thread running the context
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        go.countDown();
+        for (Future<?> result : results) {
+            result.get();
+        }
+
+        assertEquals(0, overlaps.get());
+        assertFalse(ctx.isTerminated());
+    }
+}
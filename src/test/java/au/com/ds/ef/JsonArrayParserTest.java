@@ -215,7 +215,7 @@ public class JsonArrayParserTest {
                 );
 
         flow
-                .executor(new SyncExecutor())
+                .executor(new InlineExecutor())
 
                 .whenEnter(GETTING_CHAR, new ContextHandler<ParserContext>() {
                     @Override
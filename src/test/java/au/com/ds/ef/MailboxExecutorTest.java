@@ -0,0 +1,185 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.ContextHandler;
+import au.com.ds.ef.call.StateHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static au.com.ds.ef.FlowBuilder.EasyFlowBuilder.from;
+import static au.com.ds.ef.MailboxExecutorTest.Events.back;
+import static au.com.ds.ef.MailboxExecutorTest.Events.done;
+import static au.com.ds.ef.MailboxExecutorTest.Events.next;
+import static au.com.ds.ef.MailboxExecutorTest.States.DONE;
+import static au.com.ds.ef.MailboxExecutorTest.States.START;
+import static au.com.ds.ef.MailboxExecutorTest.States.STATE_1;
+import static au.com.ds.ef.ToHolder.on;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MailboxExecutorTest {
+    private static final int CONTEXTS = 50;
+    private static final int ROUNDS = 20;
+
+    public enum States implements StateEnum {
+        START, STATE_1, DONE
+    }
+
+    public enum Events implements EventEnum {
+        next, back, done
+    }
+
+    static class CountingContext extends StatefulContext {
+        private static final long serialVersionUID = 7202969158229154338L;
+
+        final AtomicInteger active = new AtomicInteger();
+        int rounds;
+    }
+
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() {
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void shouldRunTasksOfContextInOrderOneAtATime() throws InterruptedException {
+        final StatefulContext ctx = new StatefulContext();
+        final List<Integer> order = new ArrayList<Integer>();
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final CountDownLatch latch = new CountDownLatch(1000);
+        MailboxExecutor executor = new MailboxExecutor(pool, 3);
+
+        for (int i = 0; i < 1000; i++) {
+            final int n = i;
+            executor.execute(ctx, new Runnable() {
+                @Override
+                public void run() {
+                    if (active.incrementAndGet() > 1) {
+                        overlapped.set(true);
+                    }
+                    order.add(n);
+                    active.decrementAndGet();
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertFalse(overlapped.get());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void shouldRunContextsOfOneFlowInParallel() throws InterruptedException {
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final CountDownLatch finished = new CountDownLatch(CONTEXTS);
+
+        EasyFlow<CountingContext> flow =
+
+                from(START).transit(
+                        on(next).to(STATE_1).transit(
+                                on(back).to(START),
+                                on(done).finish(DONE)
+                        )
+                );
+
+        flow
+                .executor(new MailboxExecutor(pool))
+                .whenEnter(START, new ContextHandler<CountingContext>() {
+                    @Override
+                    public void call(CountingContext context) throws Exception {
+                        if (context.active.incrementAndGet() > 1) {
+                            overlapped.set(true);
+                        }
+                        context.trigger(next);
+                        context.active.decrementAndGet();
+                    }
+                })
+                .whenEnter(STATE_1, new ContextHandler<CountingContext>() {
+                    @Override
+                    public void call(CountingContext context) throws Exception {
+                        if (context.active.incrementAndGet() > 1) {
+                            overlapped.set(true);
+                        }
+                        context.trigger(++context.rounds < ROUNDS ? back : done);
+                        context.active.decrementAndGet();
+                    }
+                })
+                .whenFinalState(new StateHandler<CountingContext>() {
+                    @Override
+                    public void call(StateEnum state, CountingContext context) {
+                        finished.countDown();
+                    }
+                });
+
+        List<CountingContext> contexts = new ArrayList<CountingContext>();
+        for (int i = 0; i < CONTEXTS; i++) {
+            CountingContext ctx = new CountingContext();
+            contexts.add(ctx);
+            flow.start(ctx);
+        }
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertFalse(overlapped.get());
+        for (CountingContext ctx : contexts) {
+            assertEquals(DONE, ctx.getStateValue());
+            assertEquals(ROUNDS, ctx.rounds);
+        }
+    }
+
+    @Test
+    public void shouldNeverRunTaskRejectedByPool() {
+        final boolean[] rejecting = {true};
+        final AtomicInteger runs = new AtomicInteger();
+        MailboxExecutor executor = new MailboxExecutor(new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                if (rejecting[0]) {
+                    throw new RejectedExecutionException();
+                }
+                task.run();
+            }
+        });
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        StatefulContext ctx = new StatefulContext();
+
+        try {
+            executor.execute(ctx, task);
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals(0, runs.get());
+        }
+
+        rejecting[0] = false;
+        executor.execute(ctx, task);
+        assertEquals(1, runs.get());
+    }
+}
@@ -13,6 +13,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static au.com.ds.ef.FlowBuilder.EasyFlowBuilder.from;
 import static au.com.ds.ef.FlowBuilder.EasyFlowBuilder.fromTransitions;
@@ -157,6 +159,84 @@ public class RunSingleTest {
     }
 
 
+    @Test
+    public void testEventsOrderSingleHop() throws LogicViolationError {
+        EasyFlow<StatefulContext> flow =
+
+                from(START).transit(
+                        on(event_1).to(STATE_1).transit(
+                                on(event_2).finish(STATE_2)
+                        )
+                );
+
+        final Collection<Integer> actualOrder = Collections.synchronizedCollection(new ArrayList<Integer>());
+
+        flow
+                .whenEnter(START, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) throws Exception {
+                        actualOrder.add(1);
+                        context.trigger(event_1);
+                    }
+                })
+                .whenEvent(event_1, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) {
+                        actualOrder.add(2);
+                    }
+                })
+                .whenLeave(START, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) {
+                        actualOrder.add(3);
+                    }
+                })
+                .whenEnter(STATE_1, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) throws Exception {
+                        actualOrder.add(4);
+                        context.trigger(event_2);
+                    }
+                })
+                .whenLeave(STATE_1, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) {
+                        actualOrder.add(5);
+                    }
+                })
+                .whenEnter(STATE_2, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) {
+                        actualOrder.add(6);
+                    }
+                })
+                .whenFinalState(new StateHandler<StatefulContext>() {
+                    @Override
+                    public void call(StateEnum state, StatefulContext context) {
+                        actualOrder.add(7);
+                    }
+                });
+
+        final AtomicInteger scheduled = new AtomicInteger();
+        final SyncExecutor executor = new SyncExecutor();
+
+        StatefulContext ctx = new StatefulContext();
+        flow
+                .executor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        scheduled.incrementAndGet();
+                        executor.execute(command);
+                    }
+                })
+                .singleHop()
+                .start(ctx);
+
+        assertEquals("Final state", STATE_2, ctx.getStateValue());
+        assertEquals("One task to enter initial state and one per transition", 3, scheduled.get());
+        assertEquals(Lists.newArrayList(1, 2, 3, 4, 5, 6, 7), Lists.newArrayList(actualOrder));
+    }
+
     @Test
     public void testEventsOrderTransitionCollection() throws LogicViolationError {
 
@@ -0,0 +1,216 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.ContextHandler;
+import au.com.ds.ef.call.StateHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static au.com.ds.ef.FlowBuilder.EasyFlowBuilder.from;
+import static au.com.ds.ef.ShardedExecutorTest.Events.back;
+import static au.com.ds.ef.ShardedExecutorTest.Events.done;
+import static au.com.ds.ef.ShardedExecutorTest.Events.next;
+import static au.com.ds.ef.ShardedExecutorTest.States.DONE;
+import static au.com.ds.ef.ShardedExecutorTest.States.START;
+import static au.com.ds.ef.ShardedExecutorTest.States.STATE_1;
+import static au.com.ds.ef.ToHolder.on;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardedExecutorTest {
+    private static final int CONTEXTS = 50;
+    private static final int ROUNDS = 20;
+
+    public enum States implements StateEnum {
+        START, STATE_1, DONE
+    }
+
+    public enum Events implements EventEnum {
+        next, back, done
+    }
+
+    static class CountingContext extends StatefulContext {
+        private static final long serialVersionUID = 4218147523242477728L;
+
+        volatile Thread thread;
+        int rounds;
+    }
+
+    private ShardedExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new ShardedExecutor(4);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        Transition.Repository.consume();
+    }
+
+    @Test
+    public void shouldRunTasksOfContextInOrderFromManyProducers() throws InterruptedException {
+        final List<StatefulContext> contexts = new ArrayList<StatefulContext>();
+        final List<List<Integer>> orders = new ArrayList<List<Integer>>();
+        for (int i = 0; i < 8; i++) {
+            contexts.add(new StatefulContext());
+            orders.add(new ArrayList<Integer>());
+        }
+
+        final CountDownLatch latch = new CountDownLatch(4 * 8 * 1000);
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int p = 0; p < 4; p++) {
+            final int producer = p;
+            producers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        for (int c = 0; c < contexts.size(); c++) {
+                            final List<Integer> order = orders.get(c);
+                            final int n = producer * 1000 + i;
+                            executor.execute(contexts.get(c), new Runnable() {
+                                @Override
+                                public void run() {
+                                    order.add(n);
+                                    latch.countDown();
+                                }
+                            });
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (List<Integer> order : orders) {
+            assertEquals(4000, order.size());
+            int[] last = {-1, -1, -1, -1};
+            for (int n : order) {
+                int producer = n / 1000;
+                assertTrue(n > last[producer]);
+                last[producer] = n;
+            }
+        }
+    }
+
+    @Test
+    public void shouldKeepContextOnOneLoop() throws InterruptedException {
+        final AtomicBoolean moved = new AtomicBoolean();
+        final CountDownLatch finished = new CountDownLatch(CONTEXTS);
+
+        EasyFlow<CountingContext> flow =
+
+                from(START).transit(
+                        on(next).to(STATE_1).transit(
+                                on(back).to(START),
+                                on(done).finish(DONE)
+                        )
+                );
+
+        ContextHandler<CountingContext> affinity = new ContextHandler<CountingContext>() {
+            @Override
+            public void call(CountingContext context) throws Exception {
+                if (context.thread == null) {
+                    context.thread = Thread.currentThread();
+                } else if (context.thread != Thread.currentThread()) {
+                    moved.set(true);
+                }
+            }
+        };
+
+        flow
+                .executor(executor)
+                .whenEvent(next, affinity)
+                .whenEnter(START, new ContextHandler<CountingContext>() {
+                    @Override
+                    public void call(CountingContext context) throws Exception {
+                        context.trigger(next);
+                    }
+                })
+                .whenEnter(STATE_1, new ContextHandler<CountingContext>() {
+                    @Override
+                    public void call(CountingContext context) throws Exception {
+                        context.trigger(++context.rounds < ROUNDS ? back : done);
+                    }
+                })
+                .whenFinalState(new StateHandler<CountingContext>() {
+                    @Override
+                    public void call(StateEnum state, CountingContext context) {
+                        finished.countDown();
+                    }
+                });
+
+        List<CountingContext> contexts = new ArrayList<CountingContext>();
+        for (int i = 0; i < CONTEXTS; i++) {
+            CountingContext ctx = new CountingContext();
+            contexts.add(ctx);
+            flow.start(ctx);
+        }
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertFalse(moved.get());
+        for (CountingContext ctx : contexts) {
+            assertEquals(DONE, ctx.getStateValue());
+            assertEquals(ROUNDS, ctx.rounds);
+        }
+    }
+
+    @Test
+    public void shouldRunQueuedTasksAndRejectNewOnShutdown() throws InterruptedException {
+        final AtomicInteger executed = new AtomicInteger();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        StatefulContext ctx = new StatefulContext();
+
+        executor.execute(ctx, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                executed.incrementAndGet();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            executor.execute(ctx, new Runnable() {
+                @Override
+                public void run() {
+                    executed.incrementAndGet();
+                }
+            });
+        }
+
+        executor.shutdown();
+        assertTrue(executor.isShutdown());
+        try {
+            executor.execute(ctx, new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        blocked.countDown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(11, executed.get());
+    }
+}
@@ -0,0 +1,203 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.ContextHandler;
+import au.com.ds.ef.err.ExecutionError;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static au.com.ds.ef.FlowBuilder.EasyFlowBuilder.from;
+import static au.com.ds.ef.StatefulContextTest.Events.event_1;
+import static au.com.ds.ef.StatefulContextTest.Events.event_2;
+import static au.com.ds.ef.StatefulContextTest.States.START;
+import static au.com.ds.ef.StatefulContextTest.States.STATE_1;
+import static au.com.ds.ef.StatefulContextTest.States.STATE_2;
+import static au.com.ds.ef.ToHolder.on;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StatefulContextTest {
+    public enum States implements StateEnum {
+        START, STATE_1, STATE_2
+    }
+
+    public enum Events implements EventEnum {
+        event_1, event_2
+    }
+
+    @After
+    public void clean() {
+        Transition.Repository.consume();
+    }
+
+    private static EasyFlow<StatefulContext> flow() {
+        return from(START).transit(
+                on(event_1).to(STATE_1).transit(
+                        on(event_2).finish(STATE_2)
+                )
+        );
+    }
+
+    @Test
+    public void shouldBuildIdString() {
+        StatefulContext named = new StatefulContext("order-1");
+        StatefulContext numbered = new StatefulContext();
+
+        assertEquals("order-1:StatefulContext", named.getId());
+        assertEquals(numbered.getIdNumber() + ":StatefulContext", numbered.toString());
+        assertSame(numbered.getId(), numbered.getId());
+        assertNotEquals(numbered, new StatefulContext());
+    }
+
+    @Test
+    public void shouldKeepStateAndFlagsTogether() {
+        StatefulContext ctx = new StatefulContext();
+        assertNull(ctx.getStateValue());
+        assertFalse(ctx.isStarted());
+
+        ctx.setState(START);
+        assertTrue(ctx.compareAndSetState(START, STATE_1));
+        assertFalse(ctx.compareAndSetState(START, STATE_2));
+        assertTrue(ctx.isRunning());
+
+        ctx.stop();
+        assertTrue(ctx.isTerminated());
+        assertTrue(ctx.isStopped());
+        assertEquals(STATE_1, ctx.getStateValue());
+
+        assertTrue(ctx.compareAndSetState(STATE_1, STATE_2));
+        assertEquals(STATE_2, ctx.getStateValue());
+        assertTrue(ctx.isStopped());
+    }
+
+    @Test
+    public void shouldRunFlowThroughStateRefView() {
+        final EasyFlow<StatefulContext> flow = flow();
+        flow
+                .executor(new InlineExecutor())
+                .whenEnter(STATE_1, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) throws Exception {
+                        context.trigger(event_2);
+                    }
+                });
+
+        StatefulContext ctx = new StatefulContext();
+        ctx.getStateRef().set(START);
+        flow.start(ctx);
+        assertEquals(START, ctx.getStateRef().get());
+
+        ctx.trigger(event_1);
+
+        assertEquals(STATE_2, ctx.getStateRef().get());
+        assertEquals(STATE_2, ctx.getStateValue());
+        assertTrue(ctx.isTerminated());
+    }
+
+    @Test
+    public void shouldAwaitTermination() throws InterruptedException {
+        final EasyFlow<StatefulContext> flow = flow();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        flow
+                .executor(pool)
+                .whenEnter(START, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) throws Exception {
+                        Thread.sleep(50);
+                        context.trigger(event_1);
+                    }
+                })
+                .whenEnter(STATE_1, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) throws Exception {
+                        context.trigger(event_2);
+                    }
+                });
+
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+        flow.waitForCompletion(ctx);
+
+        assertEquals(STATE_2, ctx.getStateValue());
+        flow.waitForCompletion(ctx);
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldCompleteWithFinalState() throws Exception {
+        EasyFlow<StatefulContext> flow = flow();
+        flow.executor(new InlineExecutor());
+
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+        ListenableFuture<StateEnum> completion = flow.completionOf(ctx);
+        assertFalse(completion.isDone());
+
+        ctx.trigger(event_1);
+        ctx.trigger(event_2);
+
+        assertTrue(completion.isDone());
+        assertEquals(STATE_2, completion.get());
+        assertSame(completion, ctx.getCompletion());
+    }
+
+    @Test
+    public void shouldFailWithExecutionError() throws Exception {
+        EasyFlow<StatefulContext> flow = flow();
+        flow
+                .executor(new InlineExecutor())
+                .whenEnter(STATE_1, new ContextHandler<StatefulContext>() {
+                    @Override
+                    public void call(StatefulContext context) throws Exception {
+                        throw new IllegalStateException("boom");
+                    }
+                });
+
+        StatefulContext failed = new StatefulContext();
+        StatefulContext finished = new StatefulContext();
+        flow.start(failed);
+        flow.start(finished);
+        ListenableFuture<List<StateEnum>> all = Flow.allTerminated(Lists.newArrayList(failed, finished));
+
+        failed.trigger(event_1);
+        assertFalse(all.isDone());
+        finished.stop();
+
+        try {
+            failed.getCompletion().get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ExecutionError);
+            assertEquals(STATE_1, ((ExecutionError) e.getCause()).getState());
+        }
+
+        assertEquals(Lists.newArrayList(null, START), all.get());
+        assertTrue(Flow.allCompleted(Lists.newArrayList(failed, finished)).isDone());
+    }
+
+    @Test
+    public void shouldKeepInterruptFlagWhileWaiting() {
+        StatefulContext ctx = new StatefulContext();
+        ctx.setState(START);
+
+        Thread.currentThread().interrupt();
+        ctx.awaitTermination();
+
+        assertTrue(Thread.interrupted());
+        assertFalse(ctx.isTerminated());
+    }
+}
@@ -0,0 +1,288 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.err.ExecutionError;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static au.com.ds.ef.ToHolder.on;
+import static au.com.ds.ef.TransitionJournalTest.Events.back;
+import static au.com.ds.ef.TransitionJournalTest.Events.finish;
+import static au.com.ds.ef.TransitionJournalTest.Events.next;
+import static au.com.ds.ef.TransitionJournalTest.States.DONE;
+import static au.com.ds.ef.TransitionJournalTest.States.START;
+import static au.com.ds.ef.TransitionJournalTest.States.STATE_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TransitionJournalTest {
+    public enum States implements StateEnum {
+        START, STATE_1, DONE
+    }
+
+    public enum Events implements EventEnum {
+        next, back, finish
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TransitionJournal journal;
+
+    @After
+    public void clean() throws InterruptedException {
+        Transition.Repository.consume();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private static EasyFlow<StatefulContext> easyFlow(TransitionJournal journal) {
+        EasyFlow<StatefulContext> flow = FlowBuilder.EasyFlowBuilder.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(back).to(START),
+                        on(finish).finish(DONE)
+                )
+        );
+        return flow.executor(new InlineExecutor()).journal(journal);
+    }
+
+    private TransitionJournal open(File dir, int segmentSize) throws IOException {
+        return new TransitionJournal(dir, segmentSize, TransitionJournal.Durability.SYNC,
+                10, TimeUnit.MILLISECONDS, 1024);
+    }
+
+    @Test
+    public void shouldJournalStartAndTransitions() throws Exception {
+        journal = new TransitionJournal(folder.getRoot(), TransitionJournal.Durability.SYNC);
+        EasyFlow<StatefulContext> flow = easyFlow(journal);
+
+        StatefulContext ctx = new StatefulContext("order-1");
+        flow.start(ctx);
+        ctx.trigger(next);
+        ctx.trigger(back);
+
+        List<TransitionJournal.Entry> entries = journal.read();
+        assertEquals(3, entries.size());
+        assertNull(entries.get(0).getStateFrom());
+        assertNull(entries.get(0).getEvent());
+        assertEquals(START, entries.get(0).getStateTo());
+
+        TransitionJournal.Entry last = entries.get(2);
+        assertEquals("order-1", last.getContextName());
+        assertEquals(ctx.getIdNumber(), last.getContextId());
+        assertEquals(STATE_1, last.getStateFrom());
+        assertEquals(back, last.getEvent());
+        assertEquals(START, last.getStateTo());
+        assertTrue(last.getTime() >= entries.get(0).getTime());
+    }
+
+    @Test
+    public void shouldRecoverNamedContextsInFlightAfterReopen() throws Exception {
+        File dir = folder.getRoot();
+        TransitionJournal first = open(dir, 1 << 20);
+        EasyFlow<StatefulContext> flow = easyFlow(first);
+
+        StatefulContext running = new StatefulContext("running");
+        StatefulContext finished = new StatefulContext("finished");
+        StatefulContext unnamed = new StatefulContext();
+        flow.start(running);
+        flow.start(finished);
+        flow.start(unnamed);
+        running.trigger(next);
+        finished.trigger(next);
+        finished.trigger(finish);
+        unnamed.trigger(next);
+        first.close();
+        Transition.Repository.consume();
+
+        journal = open(dir, 1 << 20);
+        EasyFlow<StatefulContext> restarted = easyFlow(journal);
+        Map<String, TransitionJournal.Entry> inFlight = journal.recover();
+
+        assertEquals(1, inFlight.size());
+        assertEquals(STATE_1, inFlight.get("running").getStateTo());
+
+        StatefulContext recovered = new StatefulContext("running");
+        restarted.start(recovered, inFlight.get("running").getStateTo());
+        assertEquals(STATE_1, recovered.getStateValue());
+        recovered.trigger(finish);
+        assertTrue(recovered.isTerminated());
+        assertTrue(journal.recover().isEmpty());
+    }
+
+    @Test
+    public void shouldRollOverSegments() throws Exception {
+        File dir = folder.getRoot();
+        journal = open(dir, 40 * 1024);
+        EasyFlow<StatefulContext> flow = easyFlow(journal);
+
+        StatefulContext ctx = new StatefulContext("looping");
+        flow.start(ctx);
+        for (int i = 0; i < 1000; i++) {
+            ctx.trigger(next);
+            ctx.trigger(back);
+        }
+
+        assertTrue(dir.listFiles().length > 1);
+        List<TransitionJournal.Entry> entries = journal.read();
+        assertEquals(2001, entries.size());
+        assertEquals(back, entries.get(2000).getEvent());
+    }
+
+    @Test
+    public void shouldSkipTornRecord() throws Exception {
+        File dir = folder.getRoot();
+        journal = open(dir, 1 << 20);
+        EasyFlow<StatefulContext> flow = easyFlow(journal);
+
+        StatefulContext ctx = new StatefulContext("torn");
+        flow.start(ctx);
+        ctx.trigger(next);
+        assertEquals(2, journal.read().size());
+
+        // records follow the one marking the open, corrupt state of the second one
+        RandomAccessFile file = new RandomAccessFile(dir.listFiles()[0], "rw");
+        try {
+            int opened = file.readInt();
+            file.seek(opened);
+            int first = file.readInt();
+            file.seek(opened + first + 32);
+            file.writeInt(7);
+        } finally {
+            file.close();
+        }
+
+        assertEquals(1, journal.read().size());
+    }
+
+    @Test
+    public void shouldJournalEnterFlow() throws Exception {
+        journal = new TransitionJournal(folder.getRoot(), TransitionJournal.Durability.ASYNC);
+        EnterFlow<StatefulContext> flow = FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(finish).finish(DONE)
+                )
+        );
+        flow.executor(new InlineExecutor()).journal(journal);
+
+        StatefulContext ctx = new StatefulContext("enter");
+        flow.start(ctx);
+        ctx.trigger(next);
+        ctx.trigger(finish);
+        journal.close();
+
+        List<TransitionJournal.Entry> entries = journal.read();
+        assertEquals(3, entries.size());
+        assertEquals(DONE, entries.get(2).getStateTo());
+        assertEquals(finish, entries.get(2).getEvent());
+    }
+
+    @Test
+    public void shouldWriteEveryRecordAppendedBeforeClose() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final TransitionJournal journal = new TransitionJournal(folder.newFolder(), 1 << 20,
+                    TransitionJournal.Durability.ASYNC, 10, TimeUnit.MILLISECONDS, 1024);
+            easyFlow(journal);
+
+            final AtomicInteger appended = new AtomicInteger();
+            final CountDownLatch started = new CountDownLatch(4);
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        StatefulContext ctx = new StatefulContext();
+                        started.countDown();
+                        try {
+                            for (long sequence = 1; ; sequence++) {
+                                journal.append(ctx, START, STATE_1, next, sequence);
+                                appended.incrementAndGet();
+                            }
+                        } catch (IllegalStateException e) {
+                            // closed
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+
+            started.await();
+            journal.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(appended.get(), journal.read().size());
+        }
+    }
+
+    @Test
+    public void shouldRecoverLastTransitionJournaledOutOfOrder() throws Exception {
+        journal = open(folder.getRoot(), 1 << 20);
+        easyFlow(journal);
+
+        StatefulContext ctx = new StatefulContext("order-1");
+        journal.append(ctx, null, START, null, 1);
+        // racing threads queued the second transition first
+        journal.append(ctx, STATE_1, START, back, 3);
+        journal.append(ctx, START, STATE_1, next, 2);
+
+        TransitionJournal.Entry entry = journal.recover().get("order-1");
+        assertEquals(START, entry.getStateTo());
+        assertEquals(3, entry.getSequence());
+    }
+
+    @Test
+    public void shouldTruncateSegmentOnClose() throws Exception {
+        File dir = folder.getRoot();
+        journal = open(dir, 1 << 20);
+        EasyFlow<StatefulContext> flow = easyFlow(journal);
+
+        StatefulContext ctx = new StatefulContext("closed");
+        flow.start(ctx);
+        ctx.trigger(next);
+        journal.close();
+
+        File[] segments = dir.listFiles();
+        assertEquals(1, segments.length);
+        assertTrue(segments[0].length() < 1 << 10);
+        assertEquals(2, journal.read().size());
+    }
+
+    @Test
+    public void shouldTerminateEnterFlowContextWhenStartIsNotJournaled() throws Exception {
+        journal = open(folder.getRoot(), 1 << 20);
+        EnterFlow<StatefulContext> flow = FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(next).to(STATE_1).transit(
+                        on(finish).finish(DONE)
+                )
+        );
+        flow.executor(new InlineExecutor()).journal(journal);
+        journal.close();
+
+        StatefulContext ctx = new StatefulContext("rejected");
+        flow.start(ctx);
+
+        assertTrue(ctx.isTerminated());
+        try {
+            ctx.getCompletion().get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ExecutionError);
+        }
+    }
+}
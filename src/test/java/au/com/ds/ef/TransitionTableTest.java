@@ -0,0 +1,113 @@
+package au.com.ds.ef;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static au.com.ds.ef.TransitionTableTest.Events.event_1;
+import static au.com.ds.ef.TransitionTableTest.Events.event_2;
+import static au.com.ds.ef.TransitionTableTest.States.START;
+import static au.com.ds.ef.TransitionTableTest.States.STATE_1;
+import static au.com.ds.ef.TransitionTableTest.States.STATE_2;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TransitionTableTest {
+    public enum States implements StateEnum {
+        START, STATE_1, STATE_2, UNUSED
+    }
+
+    public enum Events implements EventEnum {
+        event_1, event_2
+    }
+
+    public enum OtherStates implements StateEnum {
+        OTHER
+    }
+
+    static class NamedState implements StateEnum {
+        private final String name;
+
+        NamedState(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+    }
+
+    @After
+    public void clean() {
+        Transition.Repository.consume();
+    }
+
+    private static Transition transition(StateEnum from, EventEnum event, StateEnum to, boolean isFinal) {
+        RegularTransition t = RegularTransition.createSingleTransition(event, to, isFinal);
+        t.setStateFrom(from);
+        return t;
+    }
+
+    @Test
+    public void shouldResolveEnumStates() {
+        Transition t1 = transition(START, event_1, STATE_1, false);
+        Transition t2 = transition(STATE_1, event_2, STATE_2, true);
+        TransitionTable table = new TransitionTable(Lists.newArrayList(t1, t2));
+
+        assertSame(t1, table.get(START, event_1));
+        assertSame(t2, table.get(STATE_1, event_2));
+        assertNull(table.get(START, event_2));
+        assertNull(table.get(States.UNUSED, event_1));
+        assertNull(table.get(null, event_1));
+        assertTrue(table.isFinal(STATE_2));
+        assertFalse(table.isFinal(STATE_1));
+        assertEquals(States.values().length, table.states().size());
+    }
+
+    @Test
+    public void shouldFallBackToRegistryForNonEnumStates() {
+        StateEnum a = new NamedState("A");
+        StateEnum b = new NamedState("B");
+        StateEnum c = new NamedState("C");
+        Transition t1 = transition(a, event_1, b, false);
+        Transition t2 = transition(b, event_1, c, true);
+        TransitionTable table = new TransitionTable(Lists.newArrayList(t1, t2));
+
+        assertSame(t1, table.get(a, event_1));
+        assertSame(t2, table.get(b, event_1));
+        assertNull(table.get(c, event_1));
+        assertNull(table.get(new NamedState("A"), event_1));
+        assertTrue(table.isFinal(c));
+        assertEquals(3, table.states().size());
+    }
+
+    @Test
+    public void shouldFallBackToRegistryForMixedEnums() {
+        Transition t1 = transition(START, event_1, OtherStates.OTHER, false);
+        Transition t2 = transition(OtherStates.OTHER, event_2, STATE_2, true);
+        TransitionTable table = new TransitionTable(Lists.newArrayList(t1, t2));
+
+        assertSame(t1, table.get(START, event_1));
+        assertSame(t2, table.get(OtherStates.OTHER, event_2));
+        assertNull(table.get(STATE_1, event_1));
+        assertTrue(table.isFinal(STATE_2));
+        assertEquals(3, table.states().size());
+    }
+
+    @Test
+    public void shouldKeepLastOfDuplicatedTransitions() {
+        Transition t1 = transition(START, event_1, STATE_1, false);
+        Transition t2 = transition(START, event_1, STATE_2, false);
+        TransitionTable table = new TransitionTable(Lists.newArrayList(t1, t2));
+
+        assertSame(t2, table.get(START, event_1));
+        List<Transition> all = table.getAll(START);
+        assertEquals(1, all.size());
+    }
+}
@@ -0,0 +1,84 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.err.LogicViolationError;
+import org.junit.After;
+import org.junit.Test;
+
+import static au.com.ds.ef.ToHolder.on;
+import static au.com.ds.ef.TryTriggerTest.Events.event_1;
+import static au.com.ds.ef.TryTriggerTest.Events.event_2;
+import static au.com.ds.ef.TryTriggerTest.States.START;
+import static au.com.ds.ef.TryTriggerTest.States.STATE_1;
+import static au.com.ds.ef.TryTriggerTest.States.STATE_2;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TryTriggerTest {
+    public enum States implements StateEnum {
+        START, STATE_1, STATE_2
+    }
+
+    public enum Events implements EventEnum {
+        event_1, event_2
+    }
+
+    @After
+    public void clean() {
+        Transition.Repository.consume();
+    }
+
+    private static Flow<StatefulContext> easyFlow() {
+        return FlowBuilder.EasyFlowBuilder.from(START).transit(
+                on(event_1).to(STATE_1).transit(
+                        on(event_2).finish(STATE_2)
+                )
+        ).executor(new InlineExecutor());
+    }
+
+    private static Flow<StatefulContext> enterFlow() {
+        return FlowBuilder.EnterFlowBuilder.from(START).transit(
+                on(event_1).to(STATE_1).transit(
+                        on(event_2).finish(STATE_2)
+                )
+        ).executor(new InlineExecutor());
+    }
+
+    @Test
+    public void shouldReportResultsOfEasyFlow() {
+        assertResults(easyFlow());
+    }
+
+    @Test
+    public void shouldReportResultsOfEnterFlow() {
+        assertResults(enterFlow());
+    }
+
+    @Test(expected = LogicViolationError.class)
+    public void shouldStillThrowFromTrigger() {
+        Flow<StatefulContext> flow = enterFlow();
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+
+        flow.trigger(event_2, ctx);
+    }
+
+    private static void assertResults(Flow<StatefulContext> flow) {
+        StatefulContext ctx = new StatefulContext();
+        flow.start(ctx);
+
+        assertEquals(TriggerResult.REJECTED_NO_TRANSITION, ctx.tryTrigger(event_2));
+        assertFalse(ctx.safeTrigger(event_2));
+        assertEquals(TriggerResult.CONDITION_MISMATCH, ctx.tryConditionTrigger(event_1, STATE_1));
+        assertEquals(START, ctx.getStateValue());
+
+        assertEquals(TriggerResult.ACCEPTED, ctx.tryConditionTrigger(event_1, START));
+        assertEquals(STATE_1, ctx.getStateValue());
+
+        assertTrue(ctx.safeTrigger(event_2));
+        assertEquals(STATE_2, ctx.getStateValue());
+        assertTrue(ctx.isTerminated());
+
+        assertEquals(TriggerResult.TERMINATED, ctx.tryTrigger(event_1));
+    }
+}
@@ -16,6 +16,7 @@ import static au.com.ds.ef.ValidationTest.States.STATE_1;
 import static au.com.ds.ef.ValidationTest.States.STATE_2;
 import static au.com.ds.ef.ValidationTest.States.STATE_3;
 import static au.com.ds.ef.ValidationTest.States.STATE_4;
+import static org.junit.Assert.assertEquals;
 
 public class ValidationTest {
     public enum States implements StateEnum {
@@ -115,4 +116,53 @@ public class ValidationTest {
                 )
         );
     }
+
+    static class GeneratedState implements StateEnum {
+        private final String name;
+
+        GeneratedState(int index) {
+            this.name = "S" + index;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+    }
+
+    private static Transition chain(GeneratedState[] states, Transition last) {
+        Transition transition = last;
+        for (int i = states.length - 1; i > 0; i--) {
+            transition = on(event_1).to(states[i]).transit(transition);
+        }
+        return transition;
+    }
+
+    private static GeneratedState[] states(int size) {
+        GeneratedState[] states = new GeneratedState[size];
+        for (int i = 0; i < size; i++) {
+            states[i] = new GeneratedState(i);
+        }
+        return states;
+    }
+
+    @Test
+    public void testLargeGeneratedFlow() {
+        GeneratedState[] states = states(50000);
+        EasyFlow<StatefulContext> flow = from(states[0]).transit(chain(states, on(event_1).finish(STATE_1)));
+
+        assertEquals(states[1], flow.getAvailableTransitions(states[0]).get(0).getStateTo());
+        assertEquals(STATE_1, flow.getAvailableTransitions(states[49999]).get(0).getStateTo());
+    }
+
+    @Test(expected = DefinitionError.class)
+    // ambiguous transitions at the end of a large flow
+    public void testLargeGeneratedFlowAmbiguity() {
+        GeneratedState[] states = states(50000);
+        Transition last = on(event_1).to(STATE_1).transit(
+                on(event_2).finish(STATE_2),
+                on(event_2).finish(STATE_3)
+        );
+        from(states[0]).transit(chain(states, last));
+    }
 }
@@ -0,0 +1,63 @@
+package au.com.ds.ef;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks of each context on virtual threads, one at a time and in submission order:
+ * <pre>
+ * flow.executor(new VirtualThreadExecutor());
+ * </pre>
+ * Handlers may block on I/O, a blocked handler parks only its virtual thread, so the number of contexts in flight
+ * is not limited by a thread pool. Tasks of a context are queued in its mailbox, as with {@link MailboxExecutor},
+ * and every drain of the mailbox runs on a new virtual thread.
+ * <p>
+ * On runtimes older than Java 21 a cached pool of platform threads is used instead, see {@link #isVirtual()}.
+ */
+public class VirtualThreadExecutor implements ContextExecutor {
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final ExecutorService threads;
+    private final MailboxExecutor mailboxes;
+
+    public VirtualThreadExecutor() {
+        this(MailboxExecutor.DEFAULT_THROUGHPUT);
+    }
+
+    /**
+     * @param throughput - max number of tasks of one context executed by one thread
+     */
+    public VirtualThreadExecutor(int throughput) {
+        this.threads = VirtualThreads.newExecutor("easyflow-virtual-" + instances.incrementAndGet());
+        this.mailboxes = new MailboxExecutor(threads, throughput);
+    }
+
+    /**
+     * @return true if tasks run on virtual threads, false on runtimes without them
+     */
+    public static boolean isVirtual() {
+        return VirtualThreads.isVirtual();
+    }
+
+    @Override
+    public void execute(StatefulContext context, Runnable task) {
+        mailboxes.execute(context, task);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        threads.execute(task);
+    }
+
+    /**
+     * Tasks already submitted are executed, new ones are rejected.
+     */
+    public void shutdown() {
+        threads.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return threads.awaitTermination(timeout, unit);
+    }
+}
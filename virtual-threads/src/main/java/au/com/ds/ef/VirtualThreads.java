@@ -0,0 +1,33 @@
+package au.com.ds.ef;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads for {@link VirtualThreadExecutor} on runtimes without virtual threads: a cached pool of daemon
+ * platform threads. Replaced by the Java 21 version in {@code META-INF/versions/21}.
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    // a method, not a constant, so callers are not compiled with the value of one version
+    static boolean isVirtual() {
+        return false;
+    }
+
+    static ExecutorService newExecutor(final String name) {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, name + "-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,21 @@
+package au.com.ds.ef;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threads for {@link VirtualThreadExecutor}: a new virtual thread per task.
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    // a method, not a constant, so callers are not compiled with the value of one version
+    static boolean isVirtual() {
+        return true;
+    }
+
+    static ExecutorService newExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+}
@@ -0,0 +1,134 @@
+package au.com.ds.ef;
+
+import au.com.ds.ef.call.ContextHandler;
+import au.com.ds.ef.call.StateHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static au.com.ds.ef.FlowBuilder.EasyFlowBuilder.from;
+import static au.com.ds.ef.ToHolder.on;
+import static au.com.ds.ef.VirtualThreadExecutorIT.Events.back;
+import static au.com.ds.ef.VirtualThreadExecutorIT.Events.done;
+import static au.com.ds.ef.VirtualThreadExecutorIT.Events.next;
+import static au.com.ds.ef.VirtualThreadExecutorIT.States.DONE;
+import static au.com.ds.ef.VirtualThreadExecutorIT.States.START;
+import static au.com.ds.ef.VirtualThreadExecutorIT.States.STATE_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs against the packaged multi-release jar, so the Java 21 classes are used on Java 21+.
+ */
+public class VirtualThreadExecutorIT {
+    private static final int CONTEXTS = 2000;
+    private static final int ROUNDS = 3;
+
+    public enum States implements StateEnum {
+        START, STATE_1, DONE
+    }
+
+    public enum Events implements EventEnum {
+        next, back, done
+    }
+
+    static class BlockingContext extends StatefulContext {
+        final List<StateEnum> entered = new ArrayList<StateEnum>();
+        int rounds;
+    }
+
+    private VirtualThreadExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new VirtualThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private static boolean isVirtual(Thread thread) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void shouldUseVirtualThreadsOnJava21() {
+        String version = System.getProperty("java.specification.version");
+        boolean java21 = !version.startsWith("1.") && Integer.parseInt(version) >= 21;
+        assertEquals(java21, VirtualThreadExecutor.isVirtual());
+    }
+
+    @Test
+    public void shouldRunBlockingHandlersOfManyContextsInOrder() throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(CONTEXTS);
+        final AtomicBoolean platform = new AtomicBoolean();
+
+        EasyFlow<BlockingContext> flow =
+
+                from(START).transit(
+                        on(next).to(STATE_1).transit(
+                                on(back).to(START),
+                                on(done).finish(DONE)
+                        )
+                );
+
+        flow
+                .executor(executor)
+                .whenEnter(START, new ContextHandler<BlockingContext>() {
+                    @Override
+                    public void call(BlockingContext context) throws Exception {
+                        context.entered.add(START);
+                        Thread.sleep(20);
+                        context.trigger(next);
+                    }
+                })
+                .whenEnter(STATE_1, new ContextHandler<BlockingContext>() {
+                    @Override
+                    public void call(BlockingContext context) throws Exception {
+                        if (VirtualThreadExecutor.isVirtual() && !isVirtual(Thread.currentThread())) {
+                            platform.set(true);
+                        }
+                        context.entered.add(STATE_1);
+                        Thread.sleep(20);
+                        context.trigger(++context.rounds < ROUNDS ? back : done);
+                    }
+                })
+                .whenFinalState(new StateHandler<BlockingContext>() {
+                    @Override
+                    public void call(StateEnum state, BlockingContext context) {
+                        finished.countDown();
+                    }
+                });
+
+        List<BlockingContext> contexts = new ArrayList<BlockingContext>();
+        for (int i = 0; i < CONTEXTS; i++) {
+            BlockingContext ctx = new BlockingContext();
+            contexts.add(ctx);
+            flow.start(ctx);
+        }
+
+        assertTrue(finished.await(60, TimeUnit.SECONDS));
+        assertFalse(platform.get());
+        for (BlockingContext ctx : contexts) {
+            assertEquals(DONE, ctx.getStateValue());
+            assertEquals(2 * ROUNDS, ctx.entered.size());
+            for (int i = 0; i < ctx.entered.size(); i++) {
+                assertEquals(i % 2 == 0 ? START : STATE_1, ctx.entered.get(i));
+            }
+        }
+    }
+}